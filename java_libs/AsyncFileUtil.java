@@ -0,0 +1,373 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The asynchronous version of FileUtil.
+ * Reading and writing go through AsynchronousFileChannel, the rest run on one dedicated I/O executor.
+ * Every method returns at once with one CompletableFuture.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class AsyncFileUtil {
+
+	/**
+	 * The default count of the I/O threads
+	 */
+	public static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * @param executor
+	 * 		The executor running the I/O work. The caller owns it.
+	 */
+	public AsyncFileUtil(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Create one AsyncFileUtil with its own DEFAULT_THREADS I/O daemon threads
+	 */
+	public AsyncFileUtil() {
+		this(Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+
+			private final AtomicInteger seq = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncFileUtil-io-" + this.seq.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		}));
+	}
+
+	private final ExecutorService executor;
+
+	/**
+	 * @return
+	 * 		The executor running the I/O work
+	 */
+	public ExecutorService getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * The async version of FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 *
+	 * @param dstPath
+	 * 		Refer to FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * @param readable
+	 * 		Refer to FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * @param writable
+	 * 		Refer to FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * @param executable
+	 * 		Refer to FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * @param ownerOnly
+	 * 		Refer to FileUtil.openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * @return
+	 * 		The future of the opened file
+	 */
+	public CompletableFuture<File> openFile(final String dstPath, final Boolean readable, final Boolean writable, final Boolean executable, final Boolean ownerOnly) {
+		return this.call(new IOCall<File>() {
+			@Override
+			public File call() throws IOException {
+				return FileUtil.openFile(dstPath, readable, writable, executable, ownerOnly);
+			}
+		});
+	}
+
+	/**
+	 * The async version of FileUtil.openFile(String dstPath)
+	 *
+	 * @param dstPath
+	 * 		Refer to FileUtil.openFile(String dstPath)
+	 * @return
+	 * 		The future of the opened file
+	 */
+	public CompletableFuture<File> openFile(String dstPath) {
+		return this.openFile(dstPath, null, null, null, null);
+	}
+
+	/**
+	 * Read the whole file
+	 *
+	 * @param f
+	 * 		The file to read. Shall not be directory.
+	 * @return
+	 * 		The future of the file bytes
+	 */
+	public CompletableFuture<byte[]> readFile(final File f) {
+
+		final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+
+		// Opening and sizing may stall too(e.g. on NFS), so they run on the I/O executor like the rest
+		this.call(new IOCall<Void>() {
+			@Override
+			public Void call() throws IOException {
+				AsyncFileUtil.this.startRead(f, future);
+				return null;
+			}
+		}).whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void started, Throwable err) {
+				if (err != null) {
+					future.completeExceptionally(err);
+				}
+			}
+		});
+
+		return future;
+	}
+
+	private void startRead(File f, final CompletableFuture<byte[]> future) throws IOException {
+
+		final AsynchronousFileChannel ch = this.openChannel(f, StandardOpenOption.READ);
+		final ByteBuffer buf;
+		try {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE - 8) {
+				throw new IOException(f.getPath() + " -> Too large to read at once!");
+			}
+			buf = ByteBuffer.allocate((int) size);
+		} catch (IOException e) {
+			AsyncFileUtil.closeQuietly(ch);
+			throw e;
+		}
+
+		CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+
+			@Override
+			public void completed(Integer n, Void att) {
+				if (n < 0 || !buf.hasRemaining()) {
+					AsyncFileUtil.closeQuietly(ch);
+					// The file may shrink while being read
+					byte[] bytes = buf.array();
+					if (buf.position() < bytes.length) {
+						bytes = Arrays.copyOf(bytes, buf.position());
+					}
+					future.complete(bytes);
+				} else {
+					AsyncFileUtil.read(ch, buf, buf.position(), this);
+				}
+			}
+
+			@Override
+			public void failed(Throwable e, Void att) {
+				AsyncFileUtil.closeQuietly(ch);
+				future.completeExceptionally(e);
+			}
+		};
+		AsyncFileUtil.read(ch, buf, 0, handler);
+	}
+
+	/**
+	 * Read the whole file as text
+	 *
+	 * @param f
+	 * 		The file to read. Shall not be directory.
+	 * @param charset
+	 * 		The charset to decode the file
+	 * @return
+	 * 		The future of the file text
+	 */
+	public CompletableFuture<String> readFile(File f, final Charset charset) {
+		return this.readFile(f).thenApply(new Function<byte[], String>() {
+			@Override
+			public String apply(byte[] bytes) {
+				return new String(bytes, charset);
+			}
+		});
+	}
+
+	/**
+	 * Write bytes to the file. If the file is not existing, then create(including the parent dirs). If existing, then overwrite.
+	 *
+	 * @param f
+	 * 		The file to write
+	 * @param bytes
+	 * 		The bytes to write
+	 * @return
+	 * 		The future of the written file
+	 */
+	public CompletableFuture<File> writeFile(final File f, byte[] bytes) {
+
+		final ByteBuffer buf = ByteBuffer.wrap(bytes);
+		final CompletableFuture<File> future = new CompletableFuture<File>();
+
+		this.openFile(f.getAbsolutePath()).whenComplete(new BiConsumer<File, Throwable>() {
+			@Override
+			public void accept(File opened, Throwable err) {
+
+				if (err != null) {
+					future.completeExceptionally(err);
+					return;
+				}
+
+				final AsynchronousFileChannel ch;
+				try {
+					ch = AsyncFileUtil.this.openChannel(f, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				} catch (IOException e) {
+					future.completeExceptionally(e);
+					return;
+				}
+
+				CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+
+					@Override
+					public void completed(Integer n, Void att) {
+						if (buf.hasRemaining()) {
+							AsyncFileUtil.write(ch, buf, buf.position(), this);
+						} else {
+							AsyncFileUtil.closeQuietly(ch);
+							future.complete(f);
+						}
+					}
+
+					@Override
+					public void failed(Throwable e, Void att) {
+						AsyncFileUtil.closeQuietly(ch);
+						future.completeExceptionally(e);
+					}
+				};
+				AsyncFileUtil.write(ch, buf, 0, handler);
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Write text to the file
+	 *
+	 * @param f
+	 * 		Refer to writeFile(File f, byte[] bytes)
+	 * @param text
+	 * 		The text to write
+	 * @param charset
+	 * 		The charset to encode the text
+	 * @return
+	 * 		Refer to writeFile(File f, byte[] bytes)
+	 */
+	public CompletableFuture<File> writeFile(File f, String text, Charset charset) {
+		return this.writeFile(f, text.getBytes(charset));
+	}
+
+	/**
+	 * The async version of FileUtil.deleteFile(File f, int parallelism)
+	 *
+	 * @param f
+	 * 		Refer to FileUtil.deleteFile(File f, int parallelism)
+	 * @param parallelism
+	 * 		Refer to FileUtil.deleteFile(File f, int parallelism)
+	 * @return
+	 * 		The future of the deletion summary
+	 */
+	public CompletableFuture<TreeDeleter.Summary> deleteFile(final File f, final int parallelism) {
+		return this.call(new IOCall<TreeDeleter.Summary>() {
+			@Override
+			public TreeDeleter.Summary call() throws IOException {
+				return FileUtil.deleteFile(f, parallelism);
+			}
+		});
+	}
+
+	/**
+	 * The async version of FileUtil.deleteFile(String path)
+	 *
+	 * @param path
+	 * 		Refer to FileUtil.deleteFile(String path)
+	 * @return
+	 * 		The future completed when the deletion is done
+	 */
+	public CompletableFuture<Void> deleteFile(final String path) {
+		return this.call(new IOCall<Void>() {
+			@Override
+			public Void call() throws IOException {
+				FileUtil.deleteFile(path);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stop the I/O executor. The pending work still gets done.
+	 */
+	public void shutdown() {
+		this.executor.shutdown();
+	}
+
+	private interface IOCall<T> {
+		T call() throws IOException;
+	}
+
+	private <T> CompletableFuture<T> call(final IOCall<T> c) {
+
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(c.call());
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// Rejected by the executor
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private AsynchronousFileChannel openChannel(File f, StandardOpenOption... options) throws IOException {
+		return AsynchronousFileChannel.open(
+			f.toPath(), new HashSet<StandardOpenOption>(Arrays.asList(options)), this.executor
+		);
+	}
+
+	/**
+	 * Start one read, reporting the errors thrown at once(e.g. once the channel or the executor is shut) to the handler too
+	 */
+	private static void read(AsynchronousFileChannel ch, ByteBuffer buf, long position, CompletionHandler<Integer, Void> handler) {
+		try {
+			ch.read(buf, position, null, handler);
+		} catch (RuntimeException e) {
+			handler.failed(e, null);
+		}
+	}
+
+	/**
+	 * Start one write, reporting the errors thrown at once(e.g. once the channel or the executor is shut) to the handler too
+	 */
+	private static void write(AsynchronousFileChannel ch, ByteBuffer buf, long position, CompletionHandler<Integer, Void> handler) {
+		try {
+			ch.write(buf, position, null, handler);
+		} catch (RuntimeException e) {
+			handler.failed(e, null);
+		}
+	}
+
+	private static void closeQuietly(AsynchronousFileChannel ch) {
+		try {
+			ch.close();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,296 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write files crash-safely: write to one sibling temp file, sync, then rename over the target.
+ * So the target is either the old content or the new content, never half-written.
+ * The temp file takes over the POSIX permissions of the replaced target, and its owner and group where allowed.
+ * <p>
+ * Only the renames and the dir syncs are group-committed. Each writer still syncs the data of its own temp file,
+ * so N concurrent writes cost N data syncs, run in parallel on the writers' threads.
+ * The commits queued within one window are then renamed together by one committer thread,
+ * and each parent dir involved is synced only once for the whole batch.
+ * The writer blocks till its batch is durable, so one lone writer waits out the whole window too.
+ * Use one 0 window when the writes rarely overlap.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class AtomicFileWriter implements Closeable {
+
+	/**
+	 * The default window to group the commits, in milliseconds
+	 */
+	public static final long DEFAULT_WINDOW_MILLIS = 5;
+
+	/**
+	 * @param windowMillis
+	 * 		The max time to wait for more commits joining one batch. 0 = sync whatever is queued at once.
+	 */
+	public AtomicFileWriter(long windowMillis) {
+
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException("Illegal window: " + windowMillis);
+		}
+
+		this.windowMillis = windowMillis;
+		this.committer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				AtomicFileWriter.this.commitLoop();
+			}
+		}, "AtomicFileWriter-committer");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+
+	/**
+	 * Equal to AtomicFileWriter(DEFAULT_WINDOW_MILLIS)
+	 */
+	public AtomicFileWriter() {
+		this(DEFAULT_WINDOW_MILLIS);
+	}
+
+	private final long windowMillis;
+	private final Thread committer;
+	private final LinkedBlockingQueue<Commit> queue = new LinkedBlockingQueue<Commit>();
+	private volatile boolean closed = false;
+
+	private static class Commit {
+
+		Commit(File target, File tmp) {
+			this.target = target;
+			this.tmp = tmp;
+		}
+
+		final File target;
+		final File tmp;
+		final CompletableFuture<Void> done = new CompletableFuture<Void>();
+	}
+
+	/**
+	 * Write bytes to the target file atomically and durably.
+	 * If the parent dirs are not existing, then create.
+	 *
+	 * @param target
+	 * 		The file to write. If existing, then replace, keeping its permissions.
+	 * @param data
+	 * 		The bytes to write
+	 * @throws IOException
+	 */
+	public void write(File target, byte[] data) throws IOException {
+
+		if (this.closed) {
+			throw new IOException("The AtomicFileWriter is closed!");
+		}
+
+		target = target.getAbsoluteFile();
+		File dir = target.getParentFile();
+		if (!dir.exists()) {
+			if (!dir.mkdirs()) {
+				throw new IOException("Fail to make the dirs for the file path: " + target.getPath() + "!");
+			}
+		}
+
+		// Same dir so the rename stays on the same file system and is atomic
+		File tmp = File.createTempFile("." + target.getName() + ".", ".tmp", dir);
+		FileChannel ch = null;
+		try {
+			AtomicFileWriter.copyAccess(target, tmp);
+			ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			// Synced here on the writer's own thread, so the writers' data syncs overlap instead of queueing up
+			ch.force(false);
+			ch.close();
+		} catch (IOException e) {
+			if (ch != null) {
+				AtomicFileWriter.closeQuietly(ch);
+			}
+			tmp.delete();
+			throw e;
+		}
+
+		Commit c = new Commit(target, tmp);
+		synchronized (this.queue) {
+			if (this.closed) {
+				tmp.delete();
+				throw new IOException("The AtomicFileWriter is closed!");
+			}
+			this.queue.add(c);
+		}
+
+		try {
+			c.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting the commit of " + target.getPath());
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Fail to commit " + target.getPath(), cause);
+		}
+	}
+
+	/**
+	 * Stop accepting writes. The queued commits still get done.
+	 */
+	@Override
+	public void close() {
+		synchronized (this.queue) {
+			if (!this.closed) {
+				this.closed = true;
+				this.queue.add(AtomicFileWriter.POISON);
+			}
+		}
+	}
+
+	// Tell the committer to finish up
+	private static final Commit POISON = new Commit(null, null);
+
+	private void commitLoop() {
+
+		List<Commit> batch = new ArrayList<Commit>();
+		List<Commit> pending = new ArrayList<Commit>();
+		boolean stop = false;
+
+		while (!stop) {
+
+			try {
+				Commit c = this.queue.take();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.windowMillis);
+				long left;
+				while (c != null) {
+					// Whatever is queued already always joins, even with one 0 window
+					pending.add(c);
+					this.queue.drainTo(pending);
+					for (Commit p : pending) {
+						if (p == AtomicFileWriter.POISON) {
+							stop = true;
+						} else {
+							batch.add(p);
+						}
+					}
+					pending.clear();
+					if (stop || (left = deadline - System.nanoTime()) <= 0) {
+						break;
+					}
+					c = this.queue.poll(left, TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				// Not expected, just commit what has been collected
+			}
+
+			if (!batch.isEmpty()) {
+				this.commitBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private void commitBatch(List<Commit> batch) {
+
+		// The temp files are synced by their writers already, only the renames and the dir syncs are left
+		Set<File> dirs = new LinkedHashSet<File>();
+		List<Commit> renamed = new ArrayList<Commit>(batch.size());
+		for (Commit c : batch) {
+			try {
+				Files.move(c.tmp.toPath(), c.target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				dirs.add(c.target.getParentFile());
+				renamed.add(c);
+			} catch (IOException e) {
+				c.tmp.delete();
+				c.done.completeExceptionally(e);
+			}
+		}
+
+		// One dir sync makes all the renames inside that dir durable
+		for (File dir : dirs) {
+			AtomicFileWriter.syncDir(dir);
+		}
+
+		for (Commit c : renamed) {
+			c.done.complete(null);
+		}
+	}
+
+	/**
+	 * Give the temp file the permissions and the owner of the target it replaces,
+	 * since one new temp file only gets the defaults of the umask
+	 */
+	private static void copyAccess(File target, File tmp) throws IOException {
+
+		Path from = target.toPath();
+		Path to = tmp.toPath();
+		PosixFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(from, PosixFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			// New target, the defaults are fine
+			return;
+		} catch (UnsupportedOperationException e) {
+			// Not one POSIX file system(e.g. Windows)
+			return;
+		}
+
+		Files.setPosixFilePermissions(to, attrs.permissions());
+		try {
+			if (!attrs.owner().equals(Files.getOwner(to))) {
+				Files.setOwner(to, attrs.owner());
+			}
+			if (!attrs.group().equals(Files.readAttributes(to, PosixFileAttributes.class).group())) {
+				Files.getFileAttributeView(to, PosixFileAttributeView.class).setGroup(attrs.group());
+			}
+		} catch (IOException e) {
+			// Only privileged users may give files away, keep the writer's own then
+		}
+	}
+
+	/**
+	 * Sync one dir, making the entries created, renamed or deleted inside durable
+	 */
+	static void syncDir(File dir) {
+		FileChannel ch = null;
+		try {
+			ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+			ch.force(true);
+		} catch (IOException e) {
+			// Some platforms(e.g. Windows) cannot open or sync dirs. The rename is still atomic there.
+		} finally {
+			if (ch != null) {
+				AtomicFileWriter.closeQuietly(ch);
+			}
+		}
+	}
+
+	private static void closeQuietly(FileChannel ch) {
+		try {
+			ch.close();
+		} catch (IOException e) {
+		}
+	}
+}
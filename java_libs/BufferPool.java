@@ -0,0 +1,162 @@
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded, thread-safe pool of byte and char buffers, grouped by capacity.
+ * The byte buffers are direct so the channels can read and write them without one more copy.
+ * The capacities are rounded up to powers of 2, so the groups stay few whatever sizes the callers ask for.
+ * Releasing into one full group just drops the buffer, so the pool never grows past its bound.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class BufferPool {
+
+	/**
+	 * The default buffer capacity, 8K like java.io.BufferedWriter/BufferedReader
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	/**
+	 * The min buffer capacity handed out to the readers and writers, big enough to hold any one encoded char
+	 */
+	public static final int MIN_BUFFER_SIZE = 16;
+
+	/**
+	 * The pool shared by default
+	 */
+	public static final BufferPool SHARED = new BufferPool(64);
+
+	// The largest power of 2 one array may be
+	private static final int MAX_SIZE_CLASS = 1 << 30;
+
+	/**
+	 * @param maxPerSize
+	 * 		The max count of the idle buffers kept for each capacity and each kind
+	 */
+	public BufferPool(int maxPerSize) {
+
+		if (maxPerSize <= 0) {
+			throw new IllegalArgumentException("Illegal max per size: " + maxPerSize);
+		}
+
+		this.maxPerSize = maxPerSize;
+	}
+
+	private final int maxPerSize;
+	private final ConcurrentHashMap<Integer, ArrayBlockingQueue<ByteBuffer>> bytePool = new ConcurrentHashMap<Integer, ArrayBlockingQueue<ByteBuffer>>();
+	private final ConcurrentHashMap<Integer, ArrayBlockingQueue<CharBuffer>> charPool = new ConcurrentHashMap<Integer, ArrayBlockingQueue<CharBuffer>>();
+	private final ConcurrentHashMap<Integer, ArrayBlockingQueue<byte[]>> arrayPool = new ConcurrentHashMap<Integer, ArrayBlockingQueue<byte[]>>();
+
+	/**
+	 * Take one cleared direct byte buffer out of the pool. If none, then allocate one.
+	 *
+	 * @param size
+	 * 		The min capacity of the buffer
+	 * @return
+	 * 		The byte buffer, of the capacity rounded up to one power of 2
+	 */
+	public ByteBuffer acquireBytes(int size) {
+		int c = BufferPool.sizeClass(size);
+		ByteBuffer b = this.group(this.bytePool, c).poll();
+		return b != null ? b : ByteBuffer.allocateDirect(c);
+	}
+
+	/**
+	 * Return one byte buffer to the pool. It shall not be used after being released.
+	 *
+	 * @param b
+	 * 		The byte buffer taken by acquireBytes
+	 */
+	public void releaseBytes(ByteBuffer b) {
+		if (BufferPool.isSizeClass(b.capacity())) {
+			b.clear();
+			this.group(this.bytePool, b.capacity()).offer(b);
+		}
+	}
+
+	/**
+	 * Take one cleared char buffer out of the pool. If none, then allocate one.
+	 *
+	 * @param size
+	 * 		The min capacity of the buffer
+	 * @return
+	 * 		The char buffer, of the capacity rounded up to one power of 2
+	 */
+	public CharBuffer acquireChars(int size) {
+		int n = BufferPool.sizeClass(size);
+		CharBuffer c = this.group(this.charPool, n).poll();
+		return c != null ? c : CharBuffer.allocate(n);
+	}
+
+	/**
+	 * Return one char buffer to the pool. It shall not be used after being released.
+	 *
+	 * @param c
+	 * 		The char buffer taken by acquireChars
+	 */
+	public void releaseChars(CharBuffer c) {
+		if (BufferPool.isSizeClass(c.capacity())) {
+			c.clear();
+			this.group(this.charPool, c.capacity()).offer(c);
+		}
+	}
+
+	/**
+	 * Take one byte array out of the pool. If none, then allocate one.
+	 * For the callers encoding or decoding by hand, where one plain array beats the ByteBuffer accessors.
+	 *
+	 * @param size
+	 * 		The min length of the array
+	 * @return
+	 * 		The byte array, of the length rounded up to one power of 2. The content is not cleared.
+	 */
+	public byte[] acquireArray(int size) {
+		int n = BufferPool.sizeClass(size);
+		byte[] a = this.group(this.arrayPool, n).poll();
+		return a != null ? a : new byte[n];
+	}
+
+	/**
+	 * Return one byte array to the pool. It shall not be used after being released.
+	 *
+	 * @param a
+	 * 		The byte array taken by acquireArray
+	 */
+	public void releaseArray(byte[] a) {
+		if (BufferPool.isSizeClass(a.length)) {
+			this.group(this.arrayPool, a.length).offer(a);
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The size rounded up to one power of 2
+	 */
+	private static int sizeClass(int size) {
+		if (size <= 0 || size > MAX_SIZE_CLASS) {
+			throw new IllegalArgumentException("Illegal buffer size: " + size);
+		}
+		return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	private static boolean isSizeClass(int size) {
+		return size > 0 && (size & (size - 1)) == 0;
+	}
+
+	private <T> ArrayBlockingQueue<T> group(ConcurrentHashMap<Integer, ArrayBlockingQueue<T>> pool, int size) {
+
+		ArrayBlockingQueue<T> q = pool.get(size);
+		if (q == null) {
+			ArrayBlockingQueue<T> created = new ArrayBlockingQueue<T>(this.maxPerSize);
+			q = pool.putIfAbsent(size, created);
+			if (q == null) {
+				q = created;
+			}
+		}
+		return q;
+	}
+}
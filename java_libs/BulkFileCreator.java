@@ -0,0 +1,135 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Create files in bulk, like calling FileUtil.openFile(String dstPath) for each but without the redundant stats.
+ * Each distinct parent dir is made once per batch and then remembered in one bounded cache of known-existing dirs,
+ * so later batches under the same dirs go straight to creating the files.
+ * One cached dir is dropped as soon as creating one file under it fails for missing the dir.
+ * <p>
+ * Thread-safe.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class BulkFileCreator {
+
+	/**
+	 * The default max count of the cached dirs
+	 */
+	public static final int DEFAULT_MAX_CACHED_DIRS = 1024;
+
+	/**
+	 * @param maxCachedDirs
+	 * 		The max count of the dirs remembered. The least recently used one is dropped first.
+	 */
+	public BulkFileCreator(final int maxCachedDirs) {
+
+		if (maxCachedDirs <= 0) {
+			throw new IllegalArgumentException("Illegal max cached dirs: " + maxCachedDirs);
+		}
+
+		this.knownDirs = new LinkedHashMap<Path, Boolean>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, Boolean> eldest) {
+				return this.size() > maxCachedDirs;
+			}
+		};
+	}
+
+	/**
+	 * Equal to BulkFileCreator(DEFAULT_MAX_CACHED_DIRS)
+	 */
+	public BulkFileCreator() {
+		this(DEFAULT_MAX_CACHED_DIRS);
+	}
+
+	// Guarded by itself
+	private final LinkedHashMap<Path, Boolean> knownDirs;
+
+	/**
+	 * Open(if not existing, then create) the files
+	 *
+	 * @param dstPaths
+	 * 		The file paths
+	 * @return
+	 * 		The File objects associated with the opened files, in the same order as dstPaths
+	 * @throws IOException
+	 * 		If failing to create any one. The ones before it are created.
+	 */
+	public List<File> openFiles(Collection<String> dstPaths) throws IOException {
+
+		List<File> files = new ArrayList<File>(dstPaths.size());
+
+		for (String dstPath : dstPaths) {
+
+			Path p = Paths.get(dstPath).toAbsolutePath();
+			Path dir = p.getParent();
+
+			if (dir != null && !this.isKnown(dir)) {
+				Files.createDirectories(dir);
+				this.remember(dir);
+			}
+
+			try {
+				Files.createFile(p);
+			} catch (FileAlreadyExistsException e) {
+				// Open the existing one
+			} catch (NoSuchFileException e) {
+				// The dir has been deleted since cached
+				this.forget(dir);
+				Files.createDirectories(dir);
+				this.remember(dir);
+				try {
+					Files.createFile(p);
+				} catch (FileAlreadyExistsException e2) {
+				}
+			}
+
+			files.add(p.toFile());
+		}
+
+		return files;
+	}
+
+	/**
+	 * Forget all the cached dirs, e.g. after deleting one tree these files lived in
+	 */
+	public void clear() {
+		synchronized (this.knownDirs) {
+			this.knownDirs.clear();
+		}
+	}
+
+	private boolean isKnown(Path dir) {
+		synchronized (this.knownDirs) {
+			return this.knownDirs.get(dir) != null;
+		}
+	}
+
+	private void remember(Path dir) {
+		synchronized (this.knownDirs) {
+			this.knownDirs.put(dir, Boolean.TRUE);
+		}
+	}
+
+	private void forget(Path dir) {
+		synchronized (this.knownDirs) {
+			this.knownDirs.remove(dir);
+		}
+	}
+}
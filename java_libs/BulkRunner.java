@@ -0,0 +1,258 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Apply one file operation to many files at once, with a cap on how many run at the same time,
+ * so the storage sees a full queue of requests instead of one at a time.
+ * <p>
+ * Each file gets its own virtual thread when running on Java 21 or later, found by reflection
+ * so this class still loads on Java 8. On older runtimes one fixed pool of platform threads, as many as the cap, is used instead.
+ * One failed file never stops the others, its error is kept in its result.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class BulkRunner {
+
+	/**
+	 * The default max count of the operations running at the same time
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT = 64;
+
+	/**
+	 * One operation on one file
+	 *
+	 * @param <T>
+	 * 		The type of the operation's result
+	 */
+	public interface Operation<T> {
+		/**
+		 * @param f
+		 * 		The file to operate on
+		 * @return
+		 * 		The result of the operation
+		 * @throws IOException
+		 */
+		T apply(File f) throws IOException;
+	}
+
+	/**
+	 * The outcome of the operation on one file
+	 *
+	 * @param <T>
+	 * 		The type of the operation's result
+	 */
+	public static class Result<T> {
+
+		private Result(File file, T value, Throwable error) {
+			this.file = file;
+			this.value = value;
+			this.error = error;
+		}
+
+		private final File file;
+		private final T value;
+		private final Throwable error;
+
+		/**
+		 * @return
+		 * 		The file operated on
+		 */
+		public File getFile() {
+			return this.file;
+		}
+
+		/**
+		 * @return
+		 * 		The result of the operation. Null if failed.
+		 */
+		public T getValue() {
+			return this.value;
+		}
+
+		/**
+		 * @return
+		 * 		The error the operation failed with. Null if succeeded.
+		 */
+		public Throwable getError() {
+			return this.error;
+		}
+
+		/**
+		 * @return
+		 * 		True if the operation succeeded
+		 */
+		public boolean isOk() {
+			return this.error == null;
+		}
+
+		@Override
+		public String toString() {
+			return this.file.getPath() + " -> " + (this.error == null ? "ok" : this.error.toString());
+		}
+	}
+
+	/**
+	 * Open(if not existing, then create) each file, see FileUtil.openFile(String dstPath)
+	 */
+	public static final BulkRunner.Operation<File> OPEN = new BulkRunner.Operation<File>() {
+		@Override
+		public File apply(File f) throws IOException {
+			return FileUtil.openFile(f.getAbsolutePath());
+		}
+	};
+
+	/**
+	 * Read each file as UTF-8 text, see FileUtil.readAllText(File f)
+	 */
+	public static final BulkRunner.Operation<String> READ = new BulkRunner.Operation<String>() {
+		@Override
+		public String apply(File f) throws IOException {
+			return FileUtil.readAllText(f);
+		}
+	};
+
+	/**
+	 * Delete each file or dir, see FileUtil.deleteFile(String path)
+	 */
+	public static final BulkRunner.Operation<Void> DELETE = new BulkRunner.Operation<Void>() {
+		@Override
+		public Void apply(File f) throws IOException {
+			FileUtil.deleteFile(f.getPath());
+			return null;
+		}
+	};
+
+	/**
+	 * Write the same text into each file, replacing the existing content, see FileUtil.textFileWriter(File f, Charset charset, int bufferSize)
+	 *
+	 * @param text
+	 * 		The text to write
+	 * @param charsetName
+	 * 		The charset to encode the text
+	 * @return
+	 * 		The operation
+	 */
+	public static BulkRunner.Operation<Void> write(final String text, final String charsetName) {
+		return new BulkRunner.Operation<Void>() {
+			@Override
+			public Void apply(File f) throws IOException {
+				FileUtil.openFile(f.getAbsolutePath());
+				Writer w = FileUtil.textFileWriter(f, Charset.forName(charsetName), BufferPool.DEFAULT_BUFFER_SIZE);
+				try {
+					w.write(text);
+				} finally {
+					w.close();
+				}
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * @param maxConcurrent
+	 * 		The max count of the operations running at the same time
+	 */
+	public BulkRunner(int maxConcurrent) {
+		if (maxConcurrent <= 0) {
+			throw new IllegalArgumentException("Illegal max concurrent: " + maxConcurrent);
+		}
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * Equal to BulkRunner(DEFAULT_MAX_CONCURRENT)
+	 */
+	public BulkRunner() {
+		this(DEFAULT_MAX_CONCURRENT);
+	}
+
+	private final int maxConcurrent;
+
+	/**
+	 * Apply the operation to each file and wait for all
+	 *
+	 * @param files
+	 * 		The files to operate on
+	 * @param op
+	 * 		The operation
+	 * @return
+	 * 		The results, in the same order as the files
+	 * @throws InterruptedException
+	 * 		If interrupted while waiting. The operations not started yet are cancelled.
+	 */
+	public <T> List<BulkRunner.Result<T>> run(Collection<File> files, final BulkRunner.Operation<T> op) throws InterruptedException {
+
+		final Semaphore permits = new Semaphore(this.maxConcurrent);
+		ExecutorService pool = this.newExecutor();
+		try {
+			List<Future<BulkRunner.Result<T>>> futures = new ArrayList<Future<BulkRunner.Result<T>>>(files.size());
+			for (final File f : files) {
+				futures.add(pool.submit(new Callable<BulkRunner.Result<T>>() {
+					@Override
+					public BulkRunner.Result<T> call() throws InterruptedException {
+						permits.acquire();
+						try {
+							return new BulkRunner.Result<T>(f, op.apply(f), null);
+						} catch (Exception e) {
+							return new BulkRunner.Result<T>(f, null, e);
+						} finally {
+							permits.release();
+						}
+					}
+				}));
+			}
+
+			List<BulkRunner.Result<T>> results = new ArrayList<BulkRunner.Result<T>>(futures.size());
+			for (Future<BulkRunner.Result<T>> fu : futures) {
+				try {
+					results.add(fu.get());
+				} catch (ExecutionException e) {
+					// Only errors escape call(), e.g. OutOfMemoryError
+					throw new IllegalStateException(e.getCause());
+				}
+			}
+			return results;
+
+		} finally {
+			pool.shutdownNow();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private ExecutorService newExecutor() {
+		if (VIRTUAL_EXECUTOR != null) {
+			try {
+				return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+			} catch (Exception e) {
+				// Fall through to platform threads
+			}
+		}
+		return Executors.newFixedThreadPool(this.maxConcurrent);
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() on Java 21+, null before
+	private static final Method VIRTUAL_EXECUTOR = BulkRunner.findVirtualExecutor();
+
+	private static Method findVirtualExecutor() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
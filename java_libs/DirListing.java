@@ -0,0 +1,236 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazy listing of one directory, streamed from the file system entry by entry
+ * instead of built up front like java.io.File.list(), so even dirs of millions of entries take little heap
+ * and give their first entry at once.
+ * <p>
+ * Filtered by one glob on the names, matched inside the directory stream, and by one optional filter on the attributes.
+ * The attributes are only read, once per entry and without following links, when one attribute filter is given.
+ * <p>
+ * Holds one open directory handle till exhausted or closed. Use it in try-with-resources.
+ * Iterated once only, and not thread-safe.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class DirListing implements Closeable, Iterable<Path>, Iterator<Path> {
+
+	/**
+	 * Filter the entries by their attributes
+	 */
+	public interface Filter {
+		/**
+		 * @param p
+		 * 		The entry
+		 * @param attrs
+		 * 		The attributes of the entry, of the link itself for the symbolic links
+		 * @return
+		 * 		True = list the entry. False = skip.
+		 */
+		boolean accept(Path p, BasicFileAttributes attrs);
+	}
+
+	/**
+	 * List the regular files only
+	 */
+	public static final DirListing.Filter FILES = new DirListing.Filter() {
+		@Override
+		public boolean accept(Path p, BasicFileAttributes attrs) {
+			return attrs.isRegularFile();
+		}
+	};
+
+	/**
+	 * List the dirs only
+	 */
+	public static final DirListing.Filter DIRS = new DirListing.Filter() {
+		@Override
+		public boolean accept(Path p, BasicFileAttributes attrs) {
+			return attrs.isDirectory();
+		}
+	};
+
+	/**
+	 * @param millis
+	 * 		The time in milliseconds since the epoch
+	 * @return
+	 * 		One filter listing the entries modified after the time
+	 */
+	public static DirListing.Filter modifiedAfter(final long millis) {
+		return new DirListing.Filter() {
+			@Override
+			public boolean accept(Path p, BasicFileAttributes attrs) {
+				return attrs.lastModifiedTime().toMillis() > millis;
+			}
+		};
+	}
+
+	/**
+	 * @param bytes
+	 * 		The size in bytes
+	 * @return
+	 * 		One filter listing the entries larger than the size
+	 */
+	public static DirListing.Filter largerThan(final long bytes) {
+		return new DirListing.Filter() {
+			@Override
+			public boolean accept(Path p, BasicFileAttributes attrs) {
+				return attrs.size() > bytes;
+			}
+		};
+	}
+
+	/**
+	 * @param dir
+	 * 		The dir to list
+	 * @param glob
+	 * 		The glob the entry names shall match, refer to java.nio.file.FileSystem.getPathMatcher. Null = all.
+	 * @param filter
+	 * 		The filter on the attributes. Null = all.
+	 * @throws IOException
+	 */
+	public DirListing(File dir, String glob, DirListing.Filter filter) throws IOException {
+		Path p = dir.toPath();
+		this.ds = glob == null ? Files.newDirectoryStream(p) : Files.newDirectoryStream(p, glob);
+		this.it = this.ds.iterator();
+		this.filter = filter;
+	}
+
+	/**
+	 * Equal to DirListing(dir, null, null)
+	 *
+	 * @param dir
+	 * 		Refer to DirListing(File dir, String glob, Filter filter)
+	 * @throws IOException
+	 */
+	public DirListing(File dir) throws IOException {
+		this(dir, null, null);
+	}
+
+	private final DirectoryStream<Path> ds;
+	private final Iterator<Path> it;
+	private final DirListing.Filter filter;
+	private Path next = null;
+	private boolean closed = false;
+	private boolean iterated = false;
+
+	/**
+	 * @return
+	 * 		This listing itself, since one directory stream is iterated once only
+	 */
+	@Override
+	public Iterator<Path> iterator() {
+		if (this.iterated) {
+			throw new IllegalStateException("Already iterated!");
+		}
+		this.iterated = true;
+		return this;
+	}
+
+	/**
+	 * @return
+	 * 		True if one more entry. Closes the listing when exhausted.
+	 * @throws UncheckedIOException
+	 * 		If failing to read the dir
+	 */
+	@Override
+	public boolean hasNext() {
+
+		while (this.next == null && !this.closed) {
+
+			Path p;
+			try {
+				if (!this.it.hasNext()) {
+					this.closeQuietly();
+					break;
+				}
+				p = this.it.next();
+			} catch (DirectoryIteratorException e) {
+				this.closeQuietly();
+				throw new UncheckedIOException(e.getCause());
+			}
+
+			if (this.filter == null) {
+				this.next = p;
+				break;
+			}
+
+			try {
+				BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				if (this.filter.accept(p, attrs)) {
+					this.next = p;
+				}
+			} catch (NoSuchFileException e) {
+				// Deleted since listed
+			} catch (IOException e) {
+				this.closeQuietly();
+				throw new UncheckedIOException(e);
+			}
+		}
+		return this.next != null;
+	}
+
+	@Override
+	public Path next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Path p = this.next;
+		this.next = null;
+		return p;
+	}
+
+	/**
+	 * @return
+	 * 		The entries as one sequential stream. Closing the stream closes this listing.
+	 */
+	public Stream<Path> stream() {
+		final DirListing self = this;
+		return StreamSupport.stream(
+			Spliterators.spliteratorUnknownSize(this.iterator(), Spliterator.DISTINCT | Spliterator.NONNULL), false
+		).onClose(new Runnable() {
+			@Override
+			public void run() {
+				self.closeQuietly();
+			}
+		});
+	}
+
+	/**
+	 * Release the directory handle. Safe to call more than once.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.next = null;
+		this.ds.close();
+	}
+
+	private void closeQuietly() {
+		try {
+			this.close();
+		} catch (IOException e) {
+		}
+	}
+}
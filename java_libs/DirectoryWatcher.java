@@ -0,0 +1,411 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watch one directory tree for changes, built on WatchService.
+ * <p>
+ * The dirs are registered recursively, including the ones created later.
+ * The events in one burst are coalesced: the changed paths are collected till the tree has been quiet for the debounce window,
+ * then each one is checked against one index of mtime + size, so one file written many times is reported once
+ * and one file created then deleted within the window is not reported at all.
+ * If the WatchService overflows and drops events, the whole tree is scanned and diffed against the index instead.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class DirectoryWatcher implements Closeable {
+
+	/**
+	 * The changes found in one debounce window
+	 */
+	public static class Changes {
+
+		private Changes(List<Path> created, List<Path> modified, List<Path> deleted, boolean rescanned) {
+			this.created = Collections.unmodifiableList(created);
+			this.modified = Collections.unmodifiableList(modified);
+			this.deleted = Collections.unmodifiableList(deleted);
+			this.rescanned = rescanned;
+		}
+
+		private final List<Path> created;
+		private final List<Path> modified;
+		private final List<Path> deleted;
+		private final boolean rescanned;
+
+		/**
+		 * @return
+		 * 		The files and dirs created
+		 */
+		public List<Path> getCreated() {
+			return this.created;
+		}
+
+		/**
+		 * @return
+		 * 		The files whose mtime or size changed
+		 */
+		public List<Path> getModified() {
+			return this.modified;
+		}
+
+		/**
+		 * @return
+		 * 		The files and dirs deleted
+		 */
+		public List<Path> getDeleted() {
+			return this.deleted;
+		}
+
+		/**
+		 * @return
+		 * 		True if the events overflowed and these changes came from one full scan
+		 */
+		public boolean isRescanned() {
+			return this.rescanned;
+		}
+
+		/**
+		 * @return
+		 * 		True if nothing changed
+		 */
+		public boolean isEmpty() {
+			return this.created.isEmpty() && this.modified.isEmpty() && this.deleted.isEmpty();
+		}
+	}
+
+	/**
+	 * Listen to the changes
+	 */
+	public interface Listener {
+		/**
+		 * Called on the watcher thread once per debounce window with changes.
+		 * The RuntimeExceptions thrown go to the thread's uncaught exception handler and the watching goes on.
+		 *
+		 * @param changes
+		 * 		The changes
+		 */
+		void onChanges(DirectoryWatcher.Changes changes);
+	}
+
+	/**
+	 * @param root
+	 * 		The root dir to watch
+	 * @param debounceMillis
+	 * 		Report the changes after the tree has been quiet this long.
+	 * 		Under one never-ending burst, report at least every 10 times this long.
+	 * @param listener
+	 * 		The listener
+	 * @throws IOException
+	 */
+	public DirectoryWatcher(File root, long debounceMillis, DirectoryWatcher.Listener listener) throws IOException {
+
+		if (!root.isDirectory()) {
+			throw new IOException(root.getPath() + " -> No such dir to watch!");
+		}
+		if (debounceMillis < 0) {
+			throw new IllegalArgumentException("Illegal debounce: " + debounceMillis);
+		}
+
+		this.root = root.toPath().toAbsolutePath().normalize();
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		this.listener = listener;
+		this.ws = FileSystems.getDefault().newWatchService();
+
+		// Take the initial snapshot, nothing reported
+		this.scan(this.root, null);
+
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				DirectoryWatcher.this.watchLoop();
+			}
+		}, "DirectoryWatcher-" + root.getName());
+		this.thread.setDaemon(true);
+	}
+
+	private final Path root;
+	private final long debounceNanos;
+	private final DirectoryWatcher.Listener listener;
+	private final WatchService ws;
+	private final Thread thread;
+
+	// Touched by the watcher thread only, after the constructor
+	private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	// Sorted so all the entries under one dir sit together
+	private final TreeMap<Path, Stat> index = new TreeMap<Path, Stat>();
+	private final Set<Path> pending = new HashSet<Path>();
+	private boolean overflowed = false;
+
+	private static class Stat {
+
+		Stat(BasicFileAttributes attrs) {
+			this.dir = attrs.isDirectory();
+			this.mtime = attrs.lastModifiedTime().toMillis();
+			this.size = attrs.size();
+		}
+
+		final boolean dir;
+		final long mtime;
+		final long size;
+
+		boolean sameAs(Stat s) {
+			return this.dir == s.dir && (this.dir || (this.mtime == s.mtime && this.size == s.size));
+		}
+	}
+
+	/**
+	 * Start watching
+	 *
+	 * @return
+	 * 		This watcher
+	 */
+	public DirectoryWatcher start() {
+		this.thread.start();
+		return this;
+	}
+
+	/**
+	 * Stop watching
+	 */
+	@Override
+	public void close() throws IOException {
+		this.ws.close();
+	}
+
+	private void watchLoop() {
+
+		long firstEvent = 0;
+		long lastEvent = 0;
+
+		try {
+			while (true) {
+
+				WatchKey key;
+				if (this.pending.isEmpty() && !this.overflowed) {
+					key = this.ws.take();
+				} else {
+					long now = System.nanoTime();
+					long due = Math.min(lastEvent + this.debounceNanos, firstEvent + this.debounceNanos * 10);
+					key = due > now ? this.ws.poll(due - now, TimeUnit.NANOSECONDS) : null;
+				}
+
+				if (key != null) {
+					long now = System.nanoTime();
+					if (this.pending.isEmpty() && !this.overflowed) {
+						firstEvent = now;
+					}
+					lastEvent = now;
+					this.collect(key);
+					continue;
+				}
+
+				DirectoryWatcher.Changes changes = this.overflowed ? this.rescan() : this.resolve();
+				this.pending.clear();
+				this.overflowed = false;
+				if (!changes.isEmpty()) {
+					this.notify(changes);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// Closed
+		} catch (InterruptedException e) {
+			// Stopped
+		}
+	}
+
+	/**
+	 * Hand the changes to the listener. What it throws is reported and the watching goes on.
+	 */
+	private void notify(DirectoryWatcher.Changes changes) {
+		try {
+			this.listener.onChanges(changes);
+		} catch (RuntimeException e) {
+			// Reported like one uncaught exception(by default printed to System.err), without the thread dying of it
+			Thread t = Thread.currentThread();
+			t.getUncaughtExceptionHandler().uncaughtException(t, e);
+		}
+	}
+
+	private void collect(WatchKey key) {
+
+		Path dir = this.keys.get(key);
+
+		for (WatchEvent<?> ev : key.pollEvents()) {
+			if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+				this.overflowed = true;
+			} else if (dir != null) {
+				this.pending.add(dir.resolve((Path) ev.context()));
+			}
+		}
+
+		if (!key.reset()) {
+			// The dir is gone
+			this.keys.remove(key);
+		}
+	}
+
+	/**
+	 * Check the pending paths against the index
+	 */
+	private DirectoryWatcher.Changes resolve() {
+
+		List<Path> created = new ArrayList<Path>();
+		List<Path> modified = new ArrayList<Path>();
+		List<Path> deleted = new ArrayList<Path>();
+
+		for (Path p : this.pending) {
+
+			Stat old = this.index.get(p);
+			BasicFileAttributes attrs = DirectoryWatcher.readAttrs(p);
+
+			if (attrs == null) {
+				if (old != null) {
+					this.removeUnder(p, deleted);
+				}
+			} else if (old == null || old.dir != attrs.isDirectory()) {
+				if (old != null) {
+					this.removeUnder(p, deleted);
+				}
+				if (attrs.isDirectory()) {
+					// The files created before the dir got registered have no events, so scan for them
+					this.scan(p, created);
+				} else {
+					this.index.put(p, new Stat(attrs));
+					created.add(p);
+				}
+			} else {
+				Stat now = new Stat(attrs);
+				if (!now.sameAs(old)) {
+					this.index.put(p, now);
+					modified.add(p);
+				}
+			}
+		}
+
+		return new DirectoryWatcher.Changes(created, modified, deleted, false);
+	}
+
+	/**
+	 * Scan the whole tree and diff against the index
+	 */
+	private DirectoryWatcher.Changes rescan() {
+
+		TreeMap<Path, Stat> old = new TreeMap<Path, Stat>(this.index);
+		this.index.clear();
+		this.scan(this.root, null);
+
+		List<Path> created = new ArrayList<Path>();
+		List<Path> modified = new ArrayList<Path>();
+		List<Path> deleted = new ArrayList<Path>();
+
+		for (Map.Entry<Path, Stat> e : this.index.entrySet()) {
+			Stat o = old.remove(e.getKey());
+			if (o == null) {
+				created.add(e.getKey());
+			} else if (!o.sameAs(e.getValue())) {
+				modified.add(e.getKey());
+			}
+		}
+		deleted.addAll(old.keySet());
+
+		return new DirectoryWatcher.Changes(created, modified, deleted, true);
+	}
+
+	/**
+	 * Index and register one subtree
+	 *
+	 * @param start
+	 * 		The dir to start with
+	 * @param found
+	 * 		Collect the paths newly indexed. Null = not collecting.
+	 */
+	private void scan(Path start, final List<Path> found) {
+		try {
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					DirectoryWatcher.this.track(dir, attrs, found);
+					DirectoryWatcher.this.keys.put(dir.register(
+						DirectoryWatcher.this.ws,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY
+					), dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					DirectoryWatcher.this.track(file, attrs, found);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					// Gone or unreadable, the events or the next scan will tell
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			// Same as above
+		}
+	}
+
+	private void track(Path p, BasicFileAttributes attrs, List<Path> found) {
+		if (p.equals(this.root)) {
+			return;
+		}
+		if (this.index.put(p, new Stat(attrs)) == null && found != null) {
+			found.add(p);
+		}
+	}
+
+	private void removeUnder(Path p, List<Path> deleted) {
+		// The entries under p share the same string prefix, so they are contiguous in the sorted index
+		String prefix = p.toString();
+		Iterator<Map.Entry<Path, Stat>> it = this.index.tailMap(p, true).entrySet().iterator();
+		while (it.hasNext()) {
+			Path k = it.next().getKey();
+			if (!k.toString().startsWith(prefix)) {
+				break;
+			}
+			if (k.startsWith(p)) {
+				it.remove();
+				deleted.add(k);
+			}
+		}
+	}
+
+	private static BasicFileAttributes readAttrs(Path p) {
+		try {
+			return Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
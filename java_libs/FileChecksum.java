@@ -0,0 +1,310 @@
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checksum files, with the results cached in one file keyed by path, size and mtime,
+ * so the files not changed since the last run are never read again.
+ * <p>
+ * Two kinds of checksums:
+ * <ul>
+ * <li>standard: one sequential pass, the same as sha256sum and alike give.</li>
+ * <li>tree: the file is cut into fixed-size chunks hashed in parallel, then the chunk digests are hashed together.
+ * Much faster on big files, but only comparable with other tree checksums of the same algorithm and chunk size.</li>
+ * </ul>
+ * Thread-safe.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class FileChecksum implements Closeable {
+
+	/**
+	 * The default chunk size of the tree checksums, 8MB
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+	/**
+	 * The files modified within this long before being hashed are not cached,
+	 * since one more write in the same mtime tick would go unnoticed
+	 */
+	private static final long RACY_MILLIS = 2000;
+
+	private static final int READ_SIZE = 1 << 20;
+
+	/**
+	 * @param cacheFile
+	 * 		The file keeping the cache. If existing, then load. Null = not caching.
+	 * @param algorithm
+	 * 		The digest algorithm, refer to java.security.MessageDigest, e.g. "SHA-256"
+	 * @param chunkSize
+	 * 		The chunk size of the tree checksums
+	 * @param parallelism
+	 * 		The count of threads hashing the chunks
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public FileChecksum(File cacheFile, String algorithm, int chunkSize, int parallelism) throws IOException, NoSuchAlgorithmException {
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+		}
+
+		// Fail early on one unknown algorithm
+		MessageDigest.getInstance(algorithm);
+
+		this.cacheFile = cacheFile;
+		this.algorithm = algorithm;
+		this.chunkSize = chunkSize;
+		this.pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+
+			private final AtomicInteger seq = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "FileChecksum-" + this.seq.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		if (cacheFile != null && cacheFile.exists()) {
+			this.load();
+		}
+	}
+
+	/**
+	 * Equal to FileChecksum(cacheFile, algorithm, DEFAULT_CHUNK_SIZE, the count of available processors)
+	 *
+	 * @param cacheFile
+	 * 		Refer to FileChecksum(File cacheFile, String algorithm, int chunkSize, int parallelism)
+	 * @param algorithm
+	 * 		Refer to FileChecksum(File cacheFile, String algorithm, int chunkSize, int parallelism)
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public FileChecksum(File cacheFile, String algorithm) throws IOException, NoSuchAlgorithmException {
+		this(cacheFile, algorithm, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	private final File cacheFile;
+	private final String algorithm;
+	private final int chunkSize;
+	private final ExecutorService pool;
+	// The key: kind + "\t" + path, the value: { size, mtime, hex }
+	private final ConcurrentHashMap<String, String[]> cache = new ConcurrentHashMap<String, String[]>();
+	private volatile boolean dirty = false;
+
+	/**
+	 * Get the standard checksum
+	 *
+	 * @param f
+	 * 		The file to checksum
+	 * @return
+	 * 		The hex digest
+	 * @throws IOException
+	 */
+	public String standard(File f) throws IOException {
+		return this.checksum(f, false);
+	}
+
+	/**
+	 * Get the tree checksum
+	 *
+	 * @param f
+	 * 		The file to checksum
+	 * @return
+	 * 		The hex digest
+	 * @throws IOException
+	 */
+	public String tree(File f) throws IOException {
+		return this.checksum(f, true);
+	}
+
+	/**
+	 * Write the cache into the cache file, atomically
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+
+		if (this.cacheFile == null || !this.dirty) {
+			return;
+		}
+		this.dirty = false;
+
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String[]> e : this.cache.entrySet()) {
+			String[] v = e.getValue();
+			sb.append(v[0]).append('\t').append(v[1]).append('\t').append(v[2]).append('\t').append(e.getKey()).append('\n');
+		}
+		FileUtil.atomicWriteFile(this.cacheFile, sb.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Save the cache and stop the hashing threads
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			this.save();
+		} finally {
+			this.pool.shutdown();
+		}
+	}
+
+	private String checksum(File f, boolean tree) throws IOException {
+
+		BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+		if (!attrs.isRegularFile()) {
+			throw new IOException(f.getPath() + " -> No such file to checksum!");
+		}
+
+		String size = Long.toString(attrs.size());
+		String mtime = Long.toString(attrs.lastModifiedTime().toMillis());
+		String path = f.getAbsolutePath();
+		String key = (tree ? "tree-" + this.chunkSize : "standard") + "-" + this.algorithm + "\t" + path;
+
+		String[] hit = this.cache.get(key);
+		if (hit != null && hit[0].equals(size) && hit[1].equals(mtime)) {
+			return hit[2];
+		}
+
+		long t0 = System.currentTimeMillis();
+		String hex = FileChecksum.hex(tree ? this.treeDigest(f) : this.standardDigest(f));
+
+		// Line-based cache file, so skip the paths it cannot hold
+		if (this.cacheFile != null
+			&& t0 - attrs.lastModifiedTime().toMillis() > RACY_MILLIS
+			&& path.indexOf('\n') < 0) {
+			this.cache.put(key, new String[] { size, mtime, hex });
+			this.dirty = true;
+		}
+		return hex;
+	}
+
+	private byte[] standardDigest(File f) throws IOException {
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			MessageDigest md = this.newDigest();
+			this.update(md, ch, 0, Long.MAX_VALUE);
+			return md.digest();
+		} finally {
+			ch.close();
+		}
+	}
+
+	private byte[] treeDigest(File f) throws IOException {
+
+		final FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			List<Future<byte[]>> chunks = new ArrayList<Future<byte[]>>();
+
+			// Positional reads on one channel are safe from many threads
+			for (long pos = 0; pos < size || pos == 0; pos += this.chunkSize) {
+				final long start = pos;
+				chunks.add(this.pool.submit(new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws IOException {
+						MessageDigest md = FileChecksum.this.newDigest();
+						FileChecksum.this.update(md, ch, start, FileChecksum.this.chunkSize);
+						return md.digest();
+					}
+				}));
+			}
+
+			MessageDigest root = this.newDigest();
+			for (Future<byte[]> c : chunks) {
+				root.update(c.get());
+			}
+			return root.digest();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while hashing " + f.getPath());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Fail to hash " + f.getPath(), e.getCause());
+		} finally {
+			ch.close();
+		}
+	}
+
+	private void update(MessageDigest md, FileChannel ch, long pos, long len) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate((int) Math.min(READ_SIZE, Math.max(len, 1)));
+		long end = pos + len < 0 ? Long.MAX_VALUE : pos + len;
+		while (pos < end) {
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), end - pos));
+			int n = ch.read(buf, pos);
+			if (n < 0) {
+				break;
+			}
+			md.update(buf.array(), 0, n);
+			pos += n;
+		}
+	}
+
+	private MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(this.algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			// Checked in the constructor
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader br = FileUtil.bufferFileReader(this.cacheFile);
+		try {
+			String line;
+			while ((line = br.readLine()) != null) {
+				// size, mtime, hex, kind, path. The path goes last since it may hold tabs.
+				String[] parts = line.split("\t", 5);
+				if (parts.length == 5) {
+					this.cache.put(parts[3] + "\t" + parts[4], new String[] { parts[0], parts[1], parts[2] });
+				}
+			}
+		} finally {
+			br.close();
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		char[] digits = "0123456789abcdef".toCharArray();
+		char[] out = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			out[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+			out[i * 2 + 1] = digits[bytes[i] & 0xF];
+		}
+		return new String(out);
+	}
+}
@@ -0,0 +1,265 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Find one byte pattern in large files, like "grep -b -F" but giving every match offset.
+ * <p>
+ * The file is cut into fixed-size slices scanned in parallel, each one memory-mapped and searched by Boyer-Moore-Horspool.
+ * Each slice is mapped with the pattern length minus one more bytes past its end,
+ * so the matches straddling two slices are found, and only by the slice they start in.
+ * Overlapping matches are all reported.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class FileSearcher {
+
+	/**
+	 * The default bytes of one slice scanned by one thread, 64MB
+	 */
+	public static final int DEFAULT_SLICE_SIZE = 64 << 20;
+
+	/**
+	 * @param pattern
+	 * 		The bytes to find. Shall not be empty.
+	 * @param sliceSize
+	 * 		The bytes of one slice scanned by one thread
+	 * @param parallelism
+	 * 		The count of threads scanning at the same time
+	 */
+	public FileSearcher(byte[] pattern, int sliceSize, int parallelism) {
+
+		if (pattern.length == 0) {
+			throw new IllegalArgumentException("Empty pattern!");
+		}
+		if (sliceSize <= 0) {
+			throw new IllegalArgumentException("Illegal slice size: " + sliceSize);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+		}
+		if ((long) sliceSize + pattern.length - 1 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Slice size " + sliceSize + " too large for the pattern length " + pattern.length);
+		}
+
+		this.pattern = pattern.clone();
+		this.sliceSize = sliceSize;
+		this.parallelism = parallelism;
+
+		// The Horspool bad-character table: how far to shift by the byte under the pattern's last position
+		int m = pattern.length;
+		this.skip = new int[256];
+		Arrays.fill(this.skip, m);
+		for (int i = 0; i < m - 1; i++) {
+			this.skip[pattern[i] & 0xFF] = m - 1 - i;
+		}
+	}
+
+	/**
+	 * Equal to FileSearcher(pattern, DEFAULT_SLICE_SIZE, the count of available processors)
+	 *
+	 * @param pattern
+	 * 		Refer to FileSearcher(byte[] pattern, int sliceSize, int parallelism)
+	 */
+	public FileSearcher(byte[] pattern) {
+		this(pattern, DEFAULT_SLICE_SIZE, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Equal to FileSearcher(literal encoded by the charset)
+	 *
+	 * @param literal
+	 * 		The string to find
+	 * @param charsetName
+	 * 		The charset of the file
+	 */
+	public FileSearcher(String literal, String charsetName) {
+		this(literal.getBytes(Charset.forName(charsetName)));
+	}
+
+	private final byte[] pattern;
+	private final int sliceSize;
+	private final int parallelism;
+	private final int[] skip;
+
+	/**
+	 * Find the matches in one file
+	 *
+	 * @param f
+	 * 		The file to search
+	 * @param maxMatches
+	 * 		The max count of matches to return, the ones of the smallest offsets. &lt;0 = no limit.
+	 * @return
+	 * 		The byte offsets of the matches in the file, ascending
+	 * @throws IOException
+	 */
+	public long[] search(File f, final int maxMatches) throws IOException {
+
+		final FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		ExecutorService pool = null;
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		try {
+			final long length = ch.size();
+			final int m = this.pattern.length;
+			if (length < m) {
+				return new long[0];
+			}
+
+			int slices = (int) ((length - m) / this.sliceSize + 1);
+			if (slices == 1 || this.parallelism == 1) {
+				LongList found = new LongList();
+				for (int i = 0; i < slices && !found.isFull(maxMatches); i++) {
+					this.scan(ch, (long) i * this.sliceSize, length, maxMatches, found, stop);
+				}
+				return found.toArray();
+			}
+
+			pool = Executors.newFixedThreadPool(Math.min(this.parallelism, slices));
+			List<Future<LongList>> futures = new ArrayList<Future<LongList>>(slices);
+			for (int i = 0; i < slices; i++) {
+				final long start = (long) i * this.sliceSize;
+				futures.add(pool.submit(new Callable<LongList>() {
+					@Override
+					public LongList call() throws IOException {
+						LongList found = new LongList();
+						FileSearcher.this.scan(ch, start, length, maxMatches, found, stop);
+						return found;
+					}
+				}));
+			}
+
+			// The slices are in file order, so concatenating them keeps the offsets ascending
+			LongList all = new LongList();
+			for (Future<LongList> fu : futures) {
+				if (all.isFull(maxMatches)) {
+					fu.cancel(false);
+					continue;
+				}
+				LongList found = fu.get();
+				all.addAll(found, maxMatches < 0 ? found.size : Math.min(found.size, maxMatches - all.size));
+			}
+			return all.toArray();
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while searching " + f.getPath());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Fail to search " + f.getPath(), e.getCause());
+		} finally {
+			if (pool != null) {
+				// No slice may go on touching the mappings after returning
+				stop.set(true);
+				pool.shutdownNow();
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			ch.close();
+		}
+	}
+
+	/**
+	 * Equal to search(f, -1)
+	 *
+	 * @param f
+	 * 		Refer to search(File f, int maxMatches)
+	 * @return
+	 * 		Refer to search(File f, int maxMatches)
+	 * @throws IOException
+	 */
+	public long[] search(File f) throws IOException {
+		return this.search(f, -1);
+	}
+
+	/**
+	 * Scan one slice: the matches starting in [start, start + sliceSize), appended to found till it holds max in total
+	 */
+	private void scan(FileChannel ch, long start, long length, int max, LongList found, AtomicBoolean stop) throws IOException {
+
+		byte[] p = this.pattern;
+		int[] skip = this.skip;
+		int m = p.length;
+		int last = m - 1;
+		byte lastByte = p[last];
+
+		long mapEnd = Math.min(length, start + this.sliceSize + last);
+		MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+		// The last index one match may start at in this slice
+		int maxStart = (int) (Math.min(start + this.sliceSize, length - last) - 1 - start);
+
+		int i = 0;
+		int rounds = 0;
+		while (i <= maxStart) {
+			if ((++rounds & 0xFFFF) == 0 && stop.get()) {
+				return;
+			}
+			byte c = b.get(i + last);
+			if (c == lastByte) {
+				int j = last - 1;
+				while (j >= 0 && b.get(i + j) == p[j]) {
+					j--;
+				}
+				if (j < 0) {
+					found.add(start + i);
+					if (found.isFull(max)) {
+						return;
+					}
+				}
+			}
+			i += skip[c & 0xFF];
+		}
+	}
+
+	/**
+	 * One growable array of primitive longs, not boxing each offset
+	 */
+	private static class LongList {
+
+		long[] values = new long[16];
+		int size = 0;
+
+		void add(long v) {
+			if (this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			this.values[this.size++] = v;
+		}
+
+		void addAll(LongList o, int n) {
+			if (this.size + n > this.values.length) {
+				this.values = Arrays.copyOf(this.values, Math.max(this.size + n, this.values.length * 2));
+			}
+			System.arraycopy(o.values, 0, this.values, this.size, n);
+			this.size += n;
+		}
+
+		boolean isFull(int max) {
+			return max >= 0 && this.size >= max;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(this.values, this.size);
+		}
+	}
+}
@@ -6,9 +6,46 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * A utility class handling file 
@@ -18,6 +55,34 @@ import java.io.UnsupportedEncodingException;
  */
 public class FileUtil {		
 
+	/**
+	 * The compression formats of compressedFileWriter and compressedFileReader
+	 */
+	public enum Compression {
+		/**
+		 * The gzip format, refer to RFC 1952. Can be compressed in parallel.
+		 */
+		GZIP,
+		/**
+		 * The zlib-wrapped deflate format, refer to RFC 1950
+		 */
+		DEFLATE
+	}
+	
+	/**
+	 * The ways openFile reserves the file length up front
+	 */
+	public enum Allocation {
+		/**
+		 * Set the logical length only. The blocks are allocated when written, if the file system supports sparse files.
+		 */
+		SPARSE,
+		/**
+		 * Write zeros over the length so the blocks are allocated now, in as few extents as the file system can
+		 */
+		PREALLOCATE
+	}
+
 	/**
 	 * Open(if not existing, then create) one file
 	 * 
@@ -81,6 +146,144 @@ public class FileUtil {
 		return FileUtil.openFile(dstPath, null, null, null, null);
 	}
 
+	/**
+	 * Open(if not existing, then create) one file and reserve its length up front, so it is not grown one flush at a time.
+	 * Only grows the file, never shrinks it or touches the existing content.
+	 * Write the reserved file through one channel or RandomAccessFile without truncating, 
+	 * not through bufferFileWriter which truncates it back to empty.
+	 * 
+	 * @param dstPath
+	 * 		The file path
+	 * @param length
+	 * 		The length to reserve in bytes
+	 * @param allocation
+	 * 		How to reserve
+	 * @return
+	 * 		One File object associated with the opened file
+	 * @throws IOException
+	 */
+	public static File openFile(String dstPath, long length, FileUtil.Allocation allocation) throws IOException {
+		
+		if (length < 0) {
+			throw new IllegalArgumentException("Illegal length: " + length);
+		}
+		
+		File f = FileUtil.openFile(new File(dstPath).getAbsolutePath());
+		
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			long size = raf.length();
+			if (size >= length) {
+				return f;
+			}
+			
+			if (allocation == FileUtil.Allocation.PREALLOCATE) {
+				// Positional writes of one zeroed buffer, reused for the whole range
+				FileChannel ch = raf.getChannel();
+				ByteBuffer zeros = ByteBuffer.allocateDirect((int) Math.min(length - size, 1 << 20));
+				long pos = size;
+				while (pos < length) {
+					zeros.clear();
+					zeros.limit((int) Math.min(zeros.capacity(), length - pos));
+					while (zeros.hasRemaining()) {
+						pos += ch.write(zeros, pos);
+					}
+				}
+			} else {
+				raf.setLength(length);
+			}
+			return f;
+			
+		} finally {
+			raf.close();
+		}
+	}
+	
+	// Shared by all openFiles callers so the known dirs carry over between batches
+	private static final BulkFileCreator bulkCreator = new BulkFileCreator();
+	
+	/**
+	 * Open(if not existing, then create) many files at once, see BulkFileCreator.
+	 * Each distinct parent dir is checked or made once instead of once per file.
+	 * 
+	 * @param dstPaths
+	 * 		The file paths
+	 * @return
+	 * 		The File objects associated with the opened files, in the same order as dstPaths
+	 * @throws IOException
+	 */
+	public static List<File> openFiles(Collection<String> dstPaths) throws IOException {
+		return FileUtil.bulkCreator.openFiles(dstPaths);
+	}
+	
+	/**
+	 * Like openFile(String dstPath, Boolean readable, Boolean writable, Boolean executable, Boolean ownerOnly)
+	 * but create the file together with its permissions in one call, instead of checking and setting one by one.
+	 * The parent dirs are only checked when the creation fails for missing them.
+	 * On the file systems not supporting POSIX permissions, create then set the owner and others bits via java.io.File.
+	 * 
+	 * @param dstPath
+	 * 		The file path
+	 * @param perms
+	 * 		The permissions. Like open(2), the new file's permissions are masked by the process umask.
+	 * 		If the file is existing, then set to exactly these.
+	 * @return
+	 * 		One File object associated with the opened file
+	 * @throws IOException
+	 */
+	public static File openFile(String dstPath, Set<PosixFilePermission> perms) throws IOException {
+		
+		Path p = Paths.get(dstPath);
+		FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(perms);
+		
+		try {
+			try {
+				Files.createFile(p, attr);
+			} catch (NoSuchFileException e) {
+				Path dp = p.toAbsolutePath().getParent();
+				Files.createDirectories(dp);
+				Files.createFile(p, attr);
+			}
+			return p.toFile();
+			
+		} catch (FileAlreadyExistsException e) {
+			try {
+				Files.setPosixFilePermissions(p, perms);
+			} catch (UnsupportedOperationException e2) {
+				FileUtil.setPermsFallback(p.toFile(), perms);
+			}
+			return p.toFile();
+			
+		} catch (UnsupportedOperationException e) {
+			// Not one POSIX file system
+			File f = FileUtil.openFile(dstPath);
+			FileUtil.setPermsFallback(f, perms);
+			return f;
+		}
+	}
+	
+	/**
+	 * Equal to openFile(dstPath, PosixFilePermissions.fromString(perms))
+	 * 
+	 * @param dstPath
+	 * 		The file path
+	 * @param perms
+	 * 		The permissions in the form of "rw-r-----"
+	 * @return
+	 * 		Refer to openFile(String dstPath, Set&lt;PosixFilePermission&gt; perms)
+	 * @throws IOException
+	 */
+	public static File openFile(String dstPath, String perms) throws IOException {
+		return FileUtil.openFile(dstPath, PosixFilePermissions.fromString(perms));
+	}
+	
+	private static void setPermsFallback(File f, Set<PosixFilePermission> perms) {
+		// java.io.File only tells the owner from everybody, so the group bits go with the others bits
+		f.setReadable(perms.contains(PosixFilePermission.OWNER_READ), !perms.contains(PosixFilePermission.OTHERS_READ));
+		f.setWritable(perms.contains(PosixFilePermission.OWNER_WRITE), !perms.contains(PosixFilePermission.OTHERS_WRITE));
+		f.setExecutable(perms.contains(PosixFilePermission.OWNER_EXECUTE), !perms.contains(PosixFilePermission.OTHERS_EXECUTE));
+	}
+
 	/**
 	 * Buffer the File object for writing
 	 * 
@@ -114,6 +317,132 @@ public class FileUtil {
 		return FileUtil.bufferFileWriter(f, "UTF8");
 	}
 
+	/**
+	 * Like bufferFileWriter(File f, String charsetName) but count the I/O into the stats, see IoStats.
+	 * The bytes, writes and flushes are counted below the buffer, so they are the ones reaching the file.
+	 *
+	 * @param f
+	 * 		The File object to write
+	 * @param charsetName
+	 * 		The charset name
+	 * @param stats
+	 * 		The stats to count into, e.g. IoStats.named(the call site)
+	 * @return
+	 * 		One BufferedWriter object
+	 * @throws UnsupportedEncodingException
+	 * @throws FileNotFoundException
+	 */
+	public static BufferedWriter bufferFileWriter(File f, String charsetName, IoStats stats) throws UnsupportedEncodingException, FileNotFoundException {
+		return new BufferedWriter(new OutputStreamWriter(stats.wrap(new FileOutputStream(f)), charsetName));
+	}
+
+	/**
+	 * Like bufferFileWriter(File f,  String charsetName) but write through one FileChannel with the buffers pooled, see PooledFileWriter
+	 * 
+	 * @param f
+	 * 		The File object to be buffered
+	 * @param charsetName
+	 * 		The charset to encode the text
+	 * @param bufferSize
+	 * 		The capacity of the char and byte buffers
+	 * @return
+	 * 		One PooledFileWriter object
+	 * @throws IOException
+	 */
+	public static PooledFileWriter pooledFileWriter(File f, String charsetName, int bufferSize) throws IOException {
+		return new PooledFileWriter(f, Charset.forName(charsetName), bufferSize, BufferPool.SHARED);
+	}
+	
+	/**
+	 * Equal to pooledFileWriter(f, "UTF8", BufferPool.DEFAULT_BUFFER_SIZE)
+	 * 
+	 * @param f
+	 * 		Refer to pooledFileWriter(File f, String charsetName, int bufferSize)
+	 * @return
+	 * 		Refer to pooledFileWriter(File f, String charsetName, int bufferSize)
+	 * @throws IOException
+	 */
+	public static PooledFileWriter pooledFileWriter(File f) throws IOException {
+		return FileUtil.pooledFileWriter(f, "UTF8", BufferPool.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Open one writer for text. UTF-8 and US-ASCII get the hand-written encoder of Utf8FileWriter, other charsets go to PooledFileWriter.
+	 * 
+	 * @param f
+	 * 		The File object to be written
+	 * @param charset
+	 * 		The charset to encode the text
+	 * @param bufferSize
+	 * 		The capacity of the buffers
+	 * @return
+	 * 		One Writer object
+	 * @throws IOException
+	 */
+	public static Writer textFileWriter(File f, Charset charset, int bufferSize) throws IOException {
+		if (Utf8FileWriter.supports(charset)) {
+			return new Utf8FileWriter(f, charset, bufferSize, BufferPool.SHARED);
+		}
+		return new PooledFileWriter(f, charset, bufferSize, BufferPool.SHARED);
+	}
+	
+	/**
+	 * Equal to textFileWriter(f, StandardCharsets.UTF_8, BufferPool.DEFAULT_BUFFER_SIZE)
+	 * 
+	 * @param f
+	 * 		Refer to textFileWriter(File f, Charset charset, int bufferSize)
+	 * @return
+	 * 		Refer to textFileWriter(File f, Charset charset, int bufferSize)
+	 * @throws IOException
+	 */
+	public static Writer textFileWriter(File f) throws IOException {
+		return FileUtil.textFileWriter(f, StandardCharsets.UTF_8, BufferPool.DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Like bufferFileWriter(File f,  String charsetName) but compress what is written
+	 * 
+	 * @param f
+	 * 		The File object to be buffered
+	 * @param charsetName
+	 * 		Refer to java.io.OutputStreamWriter
+	 * @param mode
+	 * 		The compression format
+	 * @param threads
+	 * 		The count of threads compressing at the same time. Only GZIP compresses in parallel, see ParallelGzipOutputStream.
+	 * @return
+	 * 		One BufferedWriter object
+	 * @throws IOException
+	 */
+	public static BufferedWriter compressedFileWriter(File f, String charsetName, FileUtil.Compression mode, int threads) throws IOException {
+		
+		OutputStream os = new FileOutputStream(f);
+		try {
+			if (mode == FileUtil.Compression.GZIP) {
+				os = threads > 1 ? new ParallelGzipOutputStream(os, threads) : new GZIPOutputStream(os, BufferPool.DEFAULT_BUFFER_SIZE);
+			} else {
+				os = new DeflaterOutputStream(os);
+			}
+			return new BufferedWriter(new OutputStreamWriter(os, charsetName));
+		} catch (IOException e) {
+			os.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Equal to compressedFileWriter(f, "UTF8", Compression.GZIP, the count of available processors)
+	 * 
+	 * @param f
+	 * 		Refer to compressedFileWriter(File f, String charsetName, Compression mode, int threads)
+	 * @return
+	 * 		Refer to compressedFileWriter(File f, String charsetName, Compression mode, int threads)
+	 * @throws IOException
+	 */
+	public static BufferedWriter compressedFileWriter(File f) throws IOException {
+		return FileUtil.compressedFileWriter(f, "UTF8", FileUtil.Compression.GZIP, Runtime.getRuntime().availableProcessors());
+	}
+	
 	/**
 	 * Buffer the File object for reading
 	 * 
@@ -148,45 +477,797 @@ public class FileUtil {
 	}	
 
 	/**
-	 * Delete one file or one directory(including all stuff inside)
+	 * Like bufferFileReader(File f, String charsetName) but count the I/O into the stats, see IoStats.
+	 * The bytes and reads are counted below the buffer, so they are the ones coming from the file.
+	 *
+	 * @param f
+	 * 		The File object to read
+	 * @param charsetName
+	 * 		The charset name
+	 * @param stats
+	 * 		The stats to count into, e.g. IoStats.named(the call site)
+	 * @return
+	 * 		One BufferedReader object
+	 * @throws UnsupportedEncodingException
+	 * @throws FileNotFoundException
+	 */
+	public static BufferedReader bufferFileReader(File f, String charsetName, IoStats stats) throws UnsupportedEncodingException, FileNotFoundException {
+		return new BufferedReader(new InputStreamReader(stats.wrap(new FileInputStream(f)), charsetName));
+	}
+
+	/**
+	 * Like bufferFileReader(File f, String charsetName) but read through one FileChannel with the buffers pooled, see PooledFileReader
 	 * 
 	 * @param f
-	 * 		The File object to be deleted
+	 * 		The File object to be buffered
+	 * @param charsetName
+	 * 		The charset to decode the file
+	 * @param bufferSize
+	 * 		The capacity of the byte and char buffers
+	 * @return
+	 * 		One PooledFileReader object
+	 * @throws IOException
 	 */
-	public static void deleteFile(File f) {
+	public static PooledFileReader pooledFileReader(File f, String charsetName, int bufferSize) throws IOException {
+		return new PooledFileReader(f, Charset.forName(charsetName), bufferSize, BufferPool.SHARED);
+	}
+	
+	/**
+	 * Equal to pooledFileReader(f, "UTF8", BufferPool.DEFAULT_BUFFER_SIZE)
+	 * 
+	 * @param f
+	 * 		Refer to pooledFileReader(File f, String charsetName, int bufferSize)
+	 * @return
+	 * 		Refer to pooledFileReader(File f, String charsetName, int bufferSize)
+	 * @throws IOException
+	 */
+	public static PooledFileReader pooledFileReader(File f) throws IOException {
+		return FileUtil.pooledFileReader(f, "UTF8", BufferPool.DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Open one reader for text. UTF-8 and US-ASCII get the hand-written decoder of Utf8FileReader, other charsets go to PooledFileReader.
+	 * 
+	 * @param f
+	 * 		The File object to be read
+	 * @param charset
+	 * 		The charset to decode the file
+	 * @param bufferSize
+	 * 		The capacity of the buffers
+	 * @return
+	 * 		One Reader object
+	 * @throws IOException
+	 */
+	public static Reader textFileReader(File f, Charset charset, int bufferSize) throws IOException {
+		if (Utf8FileReader.supports(charset)) {
+			return new Utf8FileReader(f, charset, bufferSize, BufferPool.SHARED);
+		}
+		return new PooledFileReader(f, charset, bufferSize, BufferPool.SHARED);
+	}
+	
+	/**
+	 * Equal to textFileReader(f, StandardCharsets.UTF_8, BufferPool.DEFAULT_BUFFER_SIZE)
+	 * 
+	 * @param f
+	 * 		Refer to textFileReader(File f, Charset charset, int bufferSize)
+	 * @return
+	 * 		Refer to textFileReader(File f, Charset charset, int bufferSize)
+	 * @throws IOException
+	 */
+	public static Reader textFileReader(File f) throws IOException {
+		return FileUtil.textFileReader(f, StandardCharsets.UTF_8, BufferPool.DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Like bufferFileReader(File f, String charsetName) but decompress what is read
+	 * 
+	 * @param f
+	 * 		The File object to be buffered
+	 * @param charsetName
+	 * 		Refer to java.io.InputStreamReader
+	 * @param mode
+	 * 		The compression format
+	 * @return
+	 * 		One BufferedReader object
+	 * @throws IOException
+	 */
+	public static BufferedReader compressedFileReader(File f, String charsetName, FileUtil.Compression mode) throws IOException {
 		
-		if (f.isDirectory()) {
-			
-    		// directory is empty, then delete it
-    		if(f.list().length==0){
- 
-    		   f.delete();
- 
-    		}else{
- 
-    		   // list all the directory contents
-        	   String files[] = f.list();
- 
-        	   for (String temp : files) {
-        	      // construct the file structure
-        	      File fileDelete = new File(f, temp);
- 
-        	      // recursive delete
-        	      FileUtil.deleteFile(fileDelete);
-        	   }
- 
-        	   // check the directory again, if empty then delete it
-        	   if(f.list().length==0){
-           	     f.delete();
-        	   }
-    		}			
+		InputStream is = new FileInputStream(f);
+		try {
+			if (mode == FileUtil.Compression.GZIP) {
+				// Read all the members, so the output of ParallelGzipOutputStream reads fine as well
+				is = new GZIPInputStream(is, BufferPool.DEFAULT_BUFFER_SIZE);
+			} else {
+				is = new InflaterInputStream(is);
+			}
+			return new BufferedReader(new InputStreamReader(is, charsetName));
+		} catch (IOException e) {
+			is.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Equal to compressedFileReader(f, "UTF8", Compression.GZIP)
+	 * 
+	 * @param f
+	 * 		Refer to compressedFileReader(File f, String charsetName, Compression mode)
+	 * @return
+	 * 		Refer to compressedFileReader(File f, String charsetName, Compression mode)
+	 * @throws IOException
+	 */
+	public static BufferedReader compressedFileReader(File f) throws IOException {
+		return FileUtil.compressedFileReader(f, "UTF8", FileUtil.Compression.GZIP);
+	}
+	
+	/**
+	 * Map the File object for reading. Read-only and no charset decoding, see MappedFileReader.
+	 * 
+	 * @param f
+	 * 		The File object to be mapped
+	 * @param chunkSize
+	 * 		Refer to MappedFileReader(File f, int chunkSize)
+	 * @return
+	 * 		One MappedFileReader object
+	 * @throws IOException
+	 */
+	public static MappedFileReader mapFileReader(File f, int chunkSize) throws IOException {
+		return new MappedFileReader(f, chunkSize);
+	}
+	
+	/**
+	 * Equal to mapFileReader(f, MappedFileReader.DEFAULT_CHUNK_SIZE)
+	 * 
+	 * @param f
+	 * 		Refer to mapFileReader(File f, int chunkSize)
+	 * @return
+	 * 		Refer to mapFileReader(File f, int chunkSize)
+	 * @throws IOException
+	 */
+	public static MappedFileReader mapFileReader(File f) throws IOException {
+		return FileUtil.mapFileReader(f, MappedFileReader.DEFAULT_CHUNK_SIZE);
+	}
+
+	// The files smaller than this are read into pooled arrays by readAllText
+	private static final int SMALL_FILE_MAX = 64 * 1024;
+
+	// The largest array length the VMs reliably allocate
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Read the whole file into one byte array sized from the file length once, not grown chunk by chunk.
+	 * If the file grows while being read, then the extra bytes are read too.
+	 *
+	 * @param f
+	 * 		The file to read
+	 * @return
+	 * 		The bytes of the file
+	 * @throws IOException
+	 * 		If the file does not exist or is over 2GB
+	 */
+	public static byte[] readAllBytes(File f) throws IOException {
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			return FileUtil.readAll(ch, f);
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Read the whole file as text in one pass: the bytes are read at once and decoded straight into the string,
+	 * no line splitting and no StringBuilder. The small files are read into pooled arrays, see BufferPool.
+	 *
+	 * @param f
+	 * 		The file to read
+	 * @param charset
+	 * 		The charset of the text. Malformed input is replaced, not reported.
+	 * @return
+	 * 		The text of the file
+	 * @throws IOException
+	 * 		If the file does not exist or is over 2GB
+	 */
+	public static String readAllText(File f, Charset charset) throws IOException {
+
+		FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			if (size < SMALL_FILE_MAX) {
+				// One size class per power of two so the pooled arrays get reused across files.
+				// Always one byte to spare, so one short read tells the end was reached.
+				int len = 4096;
+				while (len <= size) {
+					len <<= 1;
+				}
+				byte[] a = BufferPool.SHARED.acquireArray(len);
+				try {
+					int n = FileUtil.readFully(ch, a, 0, len);
+					if (n < len) {
+						return new String(a, 0, n, charset);
+					}
+				} finally {
+					BufferPool.SHARED.releaseArray(a);
+				}
+				// Grown past the size class meanwhile, read it the long way
+			}
+			byte[] all = FileUtil.readAll(ch, f);
+			return new String(all, 0, all.length, charset);
+
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * Equal to readAllText(f, StandardCharsets.UTF_8)
+	 *
+	 * @param f
+	 * 		Refer to readAllText(File f, Charset charset)
+	 * @return
+	 * 		Refer to readAllText(File f, Charset charset)
+	 * @throws IOException
+	 */
+	public static String readAllText(File f) throws IOException {
+		return FileUtil.readAllText(f, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readAll(FileChannel ch, File f) throws IOException {
+
+		long size = ch.size();
+		if (size > MAX_ARRAY_LENGTH) {
+			throw new IOException(f.getPath() + " -> Too large to read into one array: " + size + " bytes!");
+		}
+
+		byte[] a = new byte[(int) size];
+		int n = FileUtil.readFully(ch, a, 0, a.length);
+
+		// Read as long as it was sized, so probe one byte before paying for one copy
+		if (n == a.length && ch.read(ByteBuffer.allocate(1), n) > 0) {
+			while (n == a.length) {
+				if (a.length == MAX_ARRAY_LENGTH) {
+					throw new IOException(f.getPath() + " -> Too large to read into one array!");
+				}
+				a = Arrays.copyOf(a, (int) Math.min(Math.max(a.length * 2L, 8192), MAX_ARRAY_LENGTH));
+				n = FileUtil.readFully(ch, a, n, a.length - n);
+			}
+		}
+		return n == a.length ? a : Arrays.copyOf(a, n);
+	}
+
+	/**
+	 * Read the file from the position off into the array at the same index, till len bytes or the end
+	 *
+	 * @return
+	 * 		The index after the last byte read
+	 */
+	private static int readFully(FileChannel ch, byte[] a, int off, int len) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(a, off, len);
+		while (b.hasRemaining()) {
+			if (ch.read(b, b.position()) < 0) {
+				break;
+			}
+		}
+		return b.position();
+	}
+
+	/**
+	 * Follow the file as it grows, starting at one byte offset, see TailReader.
+	 * Used instead of reopening the file by bufferFileReader and rereading it from the start.
+	 *
+	 * @param f
+	 * 		The file to follow. May not exist yet.
+	 * @param offset
+	 * 		Refer to TailReader(File f, long offset, Charset charset)
+	 * @param charsetName
+	 * 		The charset of the lines
+	 * @return
+	 * 		One TailReader object
+	 * @throws IOException
+	 */
+	public static TailReader tailFile(File f, long offset, String charsetName) throws IOException {
+		return new TailReader(f, offset, Charset.forName(charsetName));
+	}
+
+	/**
+	 * Follow the file as it grows, starting at its last lines, see TailReader
+	 *
+	 * @param f
+	 * 		The file to follow. May not exist yet.
+	 * @param lastLines
+	 * 		The count of the last lines to start with
+	 * @param charsetName
+	 * 		The charset of the lines
+	 * @return
+	 * 		One TailReader object
+	 * @throws IOException
+	 */
+	public static TailReader tailFileLines(File f, int lastLines, String charsetName) throws IOException {
+		return TailReader.fromLastLines(f, lastLines, Charset.forName(charsetName));
+	}
+
+	/**
+	 * Find one literal string in the file, see FileSearcher.
+	 * Used instead of scanning the lines of bufferFileReader.
+	 *
+	 * @param f
+	 * 		The file to search
+	 * @param literal
+	 * 		The string to find
+	 * @param charsetName
+	 * 		The charset of the file
+	 * @return
+	 * 		The byte offsets of the matches in the file, ascending
+	 * @throws IOException
+	 */
+	public static long[] searchFile(File f, String literal, String charsetName) throws IOException {
+		return new FileSearcher(literal, charsetName).search(f);
+	}
+
+	// Shared by all atomicWriteFile callers so their syncs get grouped together
+	private static AtomicFileWriter atomicWriter = null;
+	
+	private static synchronized AtomicFileWriter getAtomicWriter() {
+		if (FileUtil.atomicWriter == null) {
+			FileUtil.atomicWriter = new AtomicFileWriter();
+		}
+		return FileUtil.atomicWriter;
+	}
+	
+	/**
+	 * Write bytes to the file crash-safely: never leave one half-written file behind.
+	 * The renames and dir syncs of the concurrent callers are group-committed, see AtomicFileWriter.
+	 * 
+	 * @param f
+	 * 		The file to write. If not existing, then create(including the parent dirs). If existing, then replace.
+	 * @param data
+	 * 		The bytes to write
+	 * @throws IOException
+	 */
+	public static void atomicWriteFile(File f, byte[] data) throws IOException {
+		FileUtil.getAtomicWriter().write(f, data);
+	}
+	
+	/**
+	 * Like atomicWriteFile(File f, byte[] data) but write the text
+	 * 
+	 * @param f
+	 * 		Refer to atomicWriteFile(File f, byte[] data)
+	 * @param text
+	 * 		The text to write
+	 * @param charsetName
+	 * 		The charset to encode the text
+	 * @throws IOException
+	 */
+	public static void atomicWriteFile(File f, String text, String charsetName) throws IOException {
+		FileUtil.atomicWriteFile(f, text.getBytes(charsetName));
+	}
+	
+	/**
+	 * Copy one file to another by channel transferring, so the bytes go from file to file without being decoded or held on the heap
+	 * 
+	 * @param src
+	 * 		The source file. Shall not be directory.
+	 * @param dst
+	 * 		The destination file. If not existing, then create(including the parent dirs). If existing, then overwrite.
+	 * 		Shall not be the source itself.
+	 * @return
+	 * 		The count of bytes copied
+	 * @throws IOException
+	 */
+	public static long copyFile(File src, File dst) throws IOException {
+		
+		if (!src.isFile()) {
+			throw new IOException(src.getPath() + " -> No such file to copy!");
+		}
+		
+		// Truncating the destination below would wipe the source before it is read
+		if (dst.exists() && Files.isSameFile(src.toPath(), dst.toPath())) {
+			throw new IOException(src.getPath() + " and " + dst.getPath() + " -> The same file, unable to copy!");
+		}
+		
+		FileUtil.openFile(dst.getAbsolutePath());
+		
+		FileChannel in = null;
+		FileChannel out = null;
+		try {			
+			in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+			out = FileChannel.open(dst.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
 			
-		} else {
+			long size = in.size();
+			long pos = 0;
+			while (pos < size) {
+				// transferTo may move less than asked(e.g. capped at 2GB per call on some platforms), so loop till done
+				long n = in.transferTo(pos, size - pos, out);
+				if (n <= 0) {
+					// The source shrank under us
+					break;
+				}
+				pos += n;
+			}
+			return pos;
 			
-			f.delete();					
+		} finally {
+			if (in != null) in.close();
+			if (out != null) out.close();
+		}
+	}
+	
+	/**
+	 * Equal to copyFile(new File(srcPath), new File(dstPath))
+	 * 
+	 * @param srcPath
+	 * 		The source file path
+	 * @param dstPath
+	 * 		The destination file path
+	 * @return
+	 * 		Refer to copyFile(File src, File dst)
+	 * @throws IOException
+	 */
+	public static long copyFile(String srcPath, String dstPath) throws IOException {
+		return FileUtil.copyFile(new File(srcPath), new File(dstPath));
+	}
+	
+	/**
+	 * Move one file to another place.
+	 * Try renaming first which is a metadata-only operation on the same file system.
+	 * If renaming across file systems, then fall back to copyFile and delete the source. Any other renaming failure is thrown.
+	 * 
+	 * @param src
+	 * 		The source file. Shall not be directory.
+	 * @param dst
+	 * 		The destination file. If existing, then overwrite.
+	 * @return
+	 * 		One File object associated with the moved file
+	 * @throws IOException
+	 */
+	public static File moveFile(File src, File dst) throws IOException {
+		
+		if (!src.isFile()) {
+			throw new IOException(src.getPath() + " -> No such file to move!");
+		}
+		
+		File dp = dst.getAbsoluteFile().getParentFile();
+		if (dp != null && !dp.exists()) {
+			if (!dp.mkdirs()) {
+				throw new IOException("Fail to make the dirs for the file path: " + dst.getPath() + "!");
+			}
+		}
+		
+		try {
+			Files.move(src.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return dst;
+		} catch (AtomicMoveNotSupportedException e) {
+			// Not on the same file system, go the slow way below. Any other failure is a real one and goes to the caller.
+		}
+		
+		FileUtil.copyFile(src, dst);
+		if (!src.delete()) {
+			throw new IOException("Fail to delete the source file after copying: " + src.getPath() + "!");
+		}
+		return dst;
+	}
+	
+	/**
+	 * Equal to moveFile(new File(srcPath), new File(dstPath))
+	 * 
+	 * @param srcPath
+	 * 		The source file path
+	 * @param dstPath
+	 * 		The destination file path
+	 * @return
+	 * 		Refer to moveFile(File src, File dst)
+	 * @throws IOException
+	 */
+	public static File moveFile(String srcPath, String dstPath) throws IOException {
+		return FileUtil.moveFile(new File(srcPath), new File(dstPath));
+	}
+
+	/**
+	 * Split one file into parts, written in parallel by channel transfers. Byte for byte, no charset decoding.
+	 * The parts are named after the source plus ".000", ".001" and so on, and mergeFiles joins them back.
+	 *
+	 * @param src
+	 * 		The file to split
+	 * @param dstDir
+	 * 		The dir to write the parts into. If not existing, then create. The existing parts are replaced,
+	 * 		and the ones numbered past the new count(left by one earlier split) are deleted.
+	 * @param parts
+	 * 		The count of the parts
+	 * @param onLines
+	 * 		True = cut right after one "\n" only, so no line is split. The parts are then about, not exactly, the same size
+	 * 		and some may be empty if the lines are longer than one part.
+	 * @return
+	 * 		The part files in order
+	 * @throws IOException
+	 */
+	public static List<File> splitFile(File src, File dstDir, int parts, boolean onLines) throws IOException {
+
+		if (parts <= 0) {
+			throw new IllegalArgumentException("Illegal count of parts: " + parts);
+		}
+		if (!src.isFile()) {
+			throw new IOException(src.getPath() + " -> No such file to split!");
+		}
+
+		final FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+		try {
+			long size = in.size();
+
+			// The cut points, parts + 1 of them
+			long[] cuts = new long[parts + 1];
+			cuts[parts] = size;
+			for (int i = 1; i < parts; i++) {
+				long cut = Math.max(size / parts * i + Math.min(i, size % parts), cuts[i - 1]);
+				cuts[i] = onLines ? FileUtil.nextLineStart(in, cut, size) : cut;
+			}
+
+			List<File> files = new ArrayList<File>(parts);
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(parts);
+			for (int i = 0; i < parts; i++) {
+				final File part = FileUtil.openFile(new File(dstDir, String.format("%s.%03d", src.getName(), i)).getAbsolutePath());
+				final long start = cuts[i];
+				final long count = cuts[i + 1] - cuts[i];
+				files.add(part);
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+						try {
+							// Positional transfers, so the threads share the source channel safely
+							long done = 0;
+							while (done < count) {
+								long n = in.transferTo(start + done, count - done, out);
+								if (n <= 0) {
+									throw new IOException(src.getPath() + " -> Shrank while splitting!");
+								}
+								done += n;
+							}
+							return done;
+						} finally {
+							out.close();
+						}
+					}
+				});
+			}
+
+			FileUtil.runAll(tasks, "split " + src.getPath());
+
+			// The higher parts left by one earlier split into more parts, which mergeFiles over the dir would pick up
+			for (int i = parts; ; i++) {
+				File stale = new File(dstDir, String.format("%s.%03d", src.getName(), i));
+				if (!stale.isFile()) {
+					break;
+				}
+				if (!stale.delete()) {
+					throw new IOException(stale.getPath() + " -> Fail to delete the stale part!");
+				}
+			}
+			return files;
+
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Concatenate the parts into one file. The target is preallocated once up front, see openFile(String dstPath, long length, Allocation allocation),
+	 * then each part is transferred into its own range of the target by positional writes, several parts in parallel.
+	 *
+	 * @param parts
+	 * 		The files to concatenate, in order
+	 * @param dst
+	 * 		The target. If not existing, then create(including the parent dirs). If existing, then replace.
+	 * 		Shall not be any one of the parts.
+	 * @return
+	 * 		The bytes of the target
+	 * @throws IOException
+	 */
+	public static long mergeFiles(List<File> parts, File dst) throws IOException {
+
+		boolean dstExists = dst.exists();
+		long[] offsets = new long[parts.size() + 1];
+		for (int i = 0; i < parts.size(); i++) {
+			File part = parts.get(i);
+			if (!part.isFile()) {
+				throw new IOException(part.getPath() + " -> No such file to merge!");
+			}
+			if (dstExists && Files.isSameFile(part.toPath(), dst.toPath())) {
+				throw new IOException(part.getPath() + " and " + dst.getPath() + " -> The same file, unable to merge!");
+			}
+			offsets[i + 1] = offsets[i] + part.length();
+		}
+		long total = offsets[parts.size()];
+
+		if (dstExists) {
+			// Replaced, not merged over the old content
+			RandomAccessFile old = new RandomAccessFile(dst, "rw");
+			try {
+				old.setLength(0);
+			} finally {
+				old.close();
+			}
+		}
+		// Allocated for real rather than one sparse length, so the parallel writes do not scatter its blocks
+		FileUtil.openFile(dst.getAbsolutePath(), total, FileUtil.Allocation.PREALLOCATE);
+		RandomAccessFile raf = new RandomAccessFile(dst, "rw");
+		try {
+			final FileChannel out = raf.getChannel();
+
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(parts.size());
+			for (int i = 0; i < parts.size(); i++) {
+				final File part = parts.get(i);
+				final long start = offsets[i];
+				final long count = offsets[i + 1] - offsets[i];
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() throws IOException {
+						FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ);
+						try {
+							// transferFrom writes at the given position without moving the target's, so the threads never collide
+							long done = 0;
+							while (done < count) {
+								long n = out.transferFrom(in, start + done, count - done);
+								if (n <= 0) {
+									throw new IOException(part.getPath() + " -> Shrank while merging!");
+								}
+								done += n;
+							}
+							return done;
+						} finally {
+							in.close();
+						}
+					}
+				});
+			}
+
+			FileUtil.runAll(tasks, "merge into " + dst.getPath());
+			return total;
+
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @return
+	 * 		The position right after the first "\n" at or after pos, or size if none
+	 */
+	private static long nextLineStart(FileChannel ch, long pos, long size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(8192);
+		while (pos < size) {
+			buf.clear();
+			int n = ch.read(buf, pos);
+			if (n <= 0) {
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buf.get(i) == '\n') {
+					return pos + i + 1;
+				}
+			}
+			pos += n;
+		}
+		return size;
+	}
+
+	/**
+	 * Run the I/O tasks on up to the count of available processors threads, failing with the first failure
+	 */
+	private static void runAll(List<Callable<Long>> tasks, String what) throws IOException {
+
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>(tasks.size());
+			for (Callable<Long> t : tasks) {
+				futures.add(pool.submit(t));
+			}
+			for (Future<Long> fu : futures) {
+				fu.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while trying to " + what);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Fail to " + what, e.getCause());
+		} finally {
+			pool.shutdownNow();
+			try {
+				// Not returning while one task still writes
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Checksum one file in one sequential pass, not cached. 
+	 * For big files or many files checked again and again, use FileChecksum which hashes in parallel and caches.
+	 * 
+	 * @param f
+	 * 		The file to checksum
+	 * @param algorithm
+	 * 		The digest algorithm, refer to java.security.MessageDigest, e.g. "SHA-256"
+	 * @return
+	 * 		The hex digest
+	 * @throws IOException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static String checksum(File f, String algorithm) throws IOException, NoSuchAlgorithmException {
+		FileChecksum fc = new FileChecksum(null, algorithm, FileChecksum.DEFAULT_CHUNK_SIZE, 1);
+		try {
+			return fc.standard(f);
+		} finally {
+			fc.close();
+		}
+	}
+
+	/**
+	 * Delete one file or one directory(including all stuff inside).
+	 * Sub dirs are deleted in parallel, see TreeDeleter.
+	 * 
+	 * @param f
+	 * 		The File object to be deleted
+	 */
+	public static void deleteFile(File f) {
+		TreeDeleter.delete(f);
+	}
+	
+	/**
+	 * Like deleteFile(File f) but with the bounded parallelism and report how the deletion went
+	 * 
+	 * @param f
+	 * 		The File object to be deleted
+	 * @param parallelism
+	 * 		The max count of threads deleting at the same time
+	 * @return
+	 * 		The summary of entries removed, failures and elapsed time
+	 */
+	public static TreeDeleter.Summary deleteFile(File f, int parallelism) {
+		return TreeDeleter.delete(f, parallelism);
+	}
+
+	/**
+	 * Like deleteFile(File f) but return at once: the target is moved into the trash and purged in the background, see TrashBin.
+	 * If the target is on another file system than the trash, then delete it right here.
+	 *
+	 * @param f
+	 * 		The File object to be deleted
+	 * @param trash
+	 * 		The trash to move the target into
+	 * @throws IOException
+	 */
+	public static void deleteFile(File f, TrashBin trash) throws IOException {
+		try {
+			trash.discard(f);
+		} catch (AtomicMoveNotSupportedException e) {
+			FileUtil.deleteFile(f);
 		}
 	}
 
+	/**
+	 * Like deleteFile(File f) but paced by the throttle, one operation per file or dir deleted, see IoThrottle
+	 *
+	 * @param f
+	 * 		The File object to be deleted
+	 * @param throttle
+	 * 		The throttle shared by the background I/O
+	 * @return
+	 * 		The count of files and dirs deleted
+	 * @throws IOException
+	 */
+	public static long deleteFile(File f, IoThrottle throttle) throws IOException {
+		return throttle.delete(f);
+	}
+
 	/**
 	 * Do the same as deleteFile(File f)
 	 * 		
@@ -204,5 +1285,41 @@ public class FileUtil {
 			throw new IOException(path + " -> No such file or dir to delete!");
 		}
 	}
+	
+	/**
+	 * List one directory lazily, entry by entry, see DirListing.
+	 * Used instead of java.io.File.list() for the dirs too big to list up front.
+	 *
+	 * @param dir
+	 * 		The dir to list
+	 * @param glob
+	 * 		The glob the entry names shall match, e.g. "*.log". Null = all.
+	 * @param filter
+	 * 		The filter on the attributes, e.g. DirListing.FILES. Null = all.
+	 * @return
+	 * 		The listing, holding one open directory handle. Close it, e.g. by try-with-resources.
+	 * @throws IOException
+	 */
+	public static DirListing listDir(File dir, String glob, DirListing.Filter filter) throws IOException {
+		return new DirListing(dir, glob, filter);
+	}
+
+	/**
+	 * Watch one directory tree and report the changes after each burst settles, see DirectoryWatcher.
+	 * Used instead of polling the tree by exists() and list().
+	 * 
+	 * @param dir
+	 * 		The root dir to watch
+	 * @param debounceMillis
+	 * 		Refer to DirectoryWatcher(File root, long debounceMillis, Listener listener)
+	 * @param listener
+	 * 		The listener called with the changes
+	 * @return
+	 * 		The started DirectoryWatcher. Close it to stop watching.
+	 * @throws IOException
+	 */
+	public static DirectoryWatcher watchDir(File dir, long debounceMillis, DirectoryWatcher.Listener listener) throws IOException {
+		return new DirectoryWatcher(dir, debounceMillis, listener).start();
+	}
 			
 }
@@ -0,0 +1,561 @@
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The I/O counters of one group of streams, e.g. all the streams opened at one call site.
+ * Streams are counted by wrapping them with wrap(...): bytes or chars moved, opens and closes,
+ * and the latency histograms of the reads, writes, flushes and closes.
+ * <p>
+ * The counters are striped LongAdders, so the threads counting at the same time do not contend.
+ * Read them by snapshot(), which never blocks the counting.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class IoStats {
+
+	/**
+	 * The kinds of timed operations
+	 */
+	public enum Op {
+		READ, WRITE, FLUSH, CLOSE
+	}
+
+	// One bucket per power of two nanos, enough for any long
+	private static final int BUCKETS = 64;
+
+	private static final ConcurrentHashMap<String, IoStats> registry = new ConcurrentHashMap<String, IoStats>();
+
+	/**
+	 * Get the stats of one name, created on first use. Used to tell the call sites apart.
+	 *
+	 * @param name
+	 * 		The name, e.g. the call site
+	 * @return
+	 * 		The stats shared by all the callers of this name
+	 */
+	public static IoStats named(String name) {
+		IoStats s = IoStats.registry.get(name);
+		if (s == null) {
+			IoStats created = new IoStats(name);
+			s = IoStats.registry.putIfAbsent(name, created);
+			if (s == null) {
+				s = created;
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * @return
+	 * 		The snapshots of all the named stats, sorted by name
+	 */
+	public static Map<String, IoStats.Snapshot> snapshotAll() {
+		Map<String, IoStats.Snapshot> all = new TreeMap<String, IoStats.Snapshot>();
+		for (IoStats s : IoStats.registry.values()) {
+			all.put(s.name, s.snapshot());
+		}
+		return Collections.unmodifiableMap(all);
+	}
+
+	/**
+	 * @param name
+	 * 		The name shown in the snapshots. Not registered, see named(String name) for that.
+	 */
+	public IoStats(String name) {
+		this.name = name;
+		this.latency = new LongAdder[IoStats.Op.values().length][BUCKETS];
+		this.latencyNanos = new LongAdder[IoStats.Op.values().length];
+		for (int i = 0; i < this.latency.length; i++) {
+			for (int j = 0; j < BUCKETS; j++) {
+				this.latency[i][j] = new LongAdder();
+			}
+			this.latencyNanos[i] = new LongAdder();
+		}
+	}
+
+	private final String name;
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder charsRead = new LongAdder();
+	private final LongAdder charsWritten = new LongAdder();
+	private final LongAdder opens = new LongAdder();
+	private final LongAdder closes = new LongAdder();
+	private final LongAdder[][] latency;
+	private final LongAdder[] latencyNanos;
+
+	/**
+	 * @return
+	 * 		The name of the stats
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Count the bytes read through the stream
+	 *
+	 * @param in
+	 * 		The stream to count, just opened
+	 * @return
+	 * 		The counting stream
+	 */
+	public InputStream wrap(InputStream in) {
+		this.opens.increment();
+		return new CountingInputStream(in);
+	}
+
+	/**
+	 * Count the bytes written through the stream
+	 *
+	 * @param out
+	 * 		The stream to count, just opened
+	 * @return
+	 * 		The counting stream
+	 */
+	public OutputStream wrap(OutputStream out) {
+		this.opens.increment();
+		return new CountingOutputStream(out);
+	}
+
+	/**
+	 * Count the chars read through the reader. Wrap the underlying stream instead to count bytes.
+	 *
+	 * @param r
+	 * 		The reader to count, just opened
+	 * @return
+	 * 		The counting reader
+	 */
+	public Reader wrap(Reader r) {
+		this.opens.increment();
+		return new CountingReader(r);
+	}
+
+	/**
+	 * Count the chars written through the writer. Wrap the underlying stream instead to count bytes.
+	 *
+	 * @param w
+	 * 		The writer to count, just opened
+	 * @return
+	 * 		The counting writer
+	 */
+	public Writer wrap(Writer w) {
+		this.opens.increment();
+		return new CountingWriter(w);
+	}
+
+	/**
+	 * @return
+	 * 		The counters as of now. Each counter is exact, but the counters are not read at one same instant.
+	 */
+	public IoStats.Snapshot snapshot() {
+		int ops = IoStats.Op.values().length;
+		long[][] hist = new long[ops][BUCKETS];
+		long[] nanos = new long[ops];
+		for (int i = 0; i < ops; i++) {
+			for (int j = 0; j < BUCKETS; j++) {
+				hist[i][j] = this.latency[i][j].sum();
+			}
+			nanos[i] = this.latencyNanos[i].sum();
+		}
+		return new IoStats.Snapshot(
+			this.name, this.bytesRead.sum(), this.bytesWritten.sum(), this.charsRead.sum(), this.charsWritten.sum(),
+			this.opens.sum(), this.closes.sum(), hist, nanos
+		);
+	}
+
+	/**
+	 * Zero all the counters, e.g. at the start of one reporting period
+	 */
+	public void reset() {
+		this.bytesRead.reset();
+		this.bytesWritten.reset();
+		this.charsRead.reset();
+		this.charsWritten.reset();
+		this.opens.reset();
+		this.closes.reset();
+		for (int i = 0; i < this.latency.length; i++) {
+			for (int j = 0; j < BUCKETS; j++) {
+				this.latency[i][j].reset();
+			}
+			this.latencyNanos[i].reset();
+		}
+	}
+
+	private void record(IoStats.Op op, long t0) {
+		long nanos = Math.max(System.nanoTime() - t0, 0);
+		// Bucket k holds [2^(k-1), 2^k) nanos, bucket 0 holds 0
+		this.latency[op.ordinal()][BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+		this.latencyNanos[op.ordinal()].add(nanos);
+	}
+
+	/**
+	 * The counters of one IoStats at one moment
+	 */
+	public static class Snapshot {
+
+		private Snapshot(String name, long bytesRead, long bytesWritten, long charsRead, long charsWritten,
+			long opens, long closes, long[][] histograms, long[] totalNanos) {
+			this.name = name;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.charsRead = charsRead;
+			this.charsWritten = charsWritten;
+			this.opens = opens;
+			this.closes = closes;
+			this.histograms = histograms;
+			this.totalNanos = totalNanos;
+		}
+
+		private final String name;
+		private final long bytesRead;
+		private final long bytesWritten;
+		private final long charsRead;
+		private final long charsWritten;
+		private final long opens;
+		private final long closes;
+		private final long[][] histograms;
+		private final long[] totalNanos;
+
+		/**
+		 * @return
+		 * 		The name of the stats
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return
+		 * 		The bytes read through the wrapped input streams
+		 */
+		public long getBytesRead() {
+			return this.bytesRead;
+		}
+
+		/**
+		 * @return
+		 * 		The bytes written through the wrapped output streams
+		 */
+		public long getBytesWritten() {
+			return this.bytesWritten;
+		}
+
+		/**
+		 * @return
+		 * 		The chars read through the wrapped readers
+		 */
+		public long getCharsRead() {
+			return this.charsRead;
+		}
+
+		/**
+		 * @return
+		 * 		The chars written through the wrapped writers
+		 */
+		public long getCharsWritten() {
+			return this.charsWritten;
+		}
+
+		/**
+		 * @return
+		 * 		The count of the wrapped streams
+		 */
+		public long getOpens() {
+			return this.opens;
+		}
+
+		/**
+		 * @return
+		 * 		The count of the wrapped streams closed
+		 */
+		public long getCloses() {
+			return this.closes;
+		}
+
+		/**
+		 * @param op
+		 * 		The kind of operation
+		 * @return
+		 * 		The count of the operations
+		 */
+		public long getCount(IoStats.Op op) {
+			long n = 0;
+			for (long c : this.histograms[op.ordinal()]) {
+				n += c;
+			}
+			return n;
+		}
+
+		/**
+		 * @param op
+		 * 		The kind of operation
+		 * @return
+		 * 		The total time spent in the operations, in nanos
+		 */
+		public long getTotalNanos(IoStats.Op op) {
+			return this.totalNanos[op.ordinal()];
+		}
+
+		/**
+		 * @param op
+		 * 		The kind of operation
+		 * @return
+		 * 		The latency histogram. Element k = the count of the operations taking [2^(k-1), 2^k) nanos, k = 0 for 0 nanos.
+		 */
+		public long[] getHistogram(IoStats.Op op) {
+			return this.histograms[op.ordinal()].clone();
+		}
+
+		/**
+		 * @param op
+		 * 		The kind of operation
+		 * @param percent
+		 * 		The percentile, in (0, 100]
+		 * @return
+		 * 		The upper bound in nanos of the bucket holding the percentile, within 2x of the exact value. 0 if no operations.
+		 */
+		public long getPercentileNanos(IoStats.Op op, double percent) {
+			long[] h = this.histograms[op.ordinal()];
+			long rank = (long) Math.ceil(this.getCount(op) * percent / 100);
+			long seen = 0;
+			for (int k = 0; k < h.length; k++) {
+				seen += h[k];
+				if (seen >= rank && seen > 0) {
+					return k == 0 ? 0 : (k >= 63 ? Long.MAX_VALUE : (1L << k) - 1);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(this.name)
+				.append(": opens=").append(this.opens).append(", closes=").append(this.closes)
+				.append(", bytesRead=").append(this.bytesRead).append(", bytesWritten=").append(this.bytesWritten)
+				.append(", charsRead=").append(this.charsRead).append(", charsWritten=").append(this.charsWritten);
+			for (IoStats.Op op : IoStats.Op.values()) {
+				long n = this.getCount(op);
+				if (n > 0) {
+					sb.append(", ").append(op.name().toLowerCase()).append("={count=").append(n)
+						.append(", totalMs=").append(this.getTotalNanos(op) / 1000000)
+						.append(", p99Us=").append(this.getPercentileNanos(op, 99) / 1000).append('}');
+				}
+			}
+			return sb.toString();
+		}
+	}
+
+	private class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		private boolean closed = false;
+
+		@Override
+		public int read() throws IOException {
+			long t0 = System.nanoTime();
+			int b = this.in.read();
+			IoStats.this.record(IoStats.Op.READ, t0);
+			if (b >= 0) {
+				IoStats.this.bytesRead.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long t0 = System.nanoTime();
+			int n = this.in.read(b, off, len);
+			IoStats.this.record(IoStats.Op.READ, t0);
+			if (n > 0) {
+				IoStats.this.bytesRead.add(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			return this.in.skip(n);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			long t0 = System.nanoTime();
+			try {
+				this.in.close();
+			} finally {
+				IoStats.this.record(IoStats.Op.CLOSE, t0);
+				IoStats.this.closes.increment();
+			}
+		}
+	}
+
+	private class CountingOutputStream extends FilterOutputStream {
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		private boolean closed = false;
+
+		@Override
+		public void write(int b) throws IOException {
+			long t0 = System.nanoTime();
+			this.out.write(b);
+			IoStats.this.record(IoStats.Op.WRITE, t0);
+			IoStats.this.bytesWritten.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			// Not the byte-by-byte loop of FilterOutputStream
+			long t0 = System.nanoTime();
+			this.out.write(b, off, len);
+			IoStats.this.record(IoStats.Op.WRITE, t0);
+			IoStats.this.bytesWritten.add(len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long t0 = System.nanoTime();
+			this.out.flush();
+			IoStats.this.record(IoStats.Op.FLUSH, t0);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			long t0 = System.nanoTime();
+			try {
+				this.out.close();
+			} finally {
+				IoStats.this.record(IoStats.Op.CLOSE, t0);
+				IoStats.this.closes.increment();
+			}
+		}
+	}
+
+	private class CountingReader extends FilterReader {
+
+		CountingReader(Reader in) {
+			super(in);
+		}
+
+		private boolean closed = false;
+
+		@Override
+		public int read() throws IOException {
+			long t0 = System.nanoTime();
+			int c = this.in.read();
+			IoStats.this.record(IoStats.Op.READ, t0);
+			if (c >= 0) {
+				IoStats.this.charsRead.increment();
+			}
+			return c;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			long t0 = System.nanoTime();
+			int n = this.in.read(cbuf, off, len);
+			IoStats.this.record(IoStats.Op.READ, t0);
+			if (n > 0) {
+				IoStats.this.charsRead.add(n);
+			}
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			long t0 = System.nanoTime();
+			try {
+				this.in.close();
+			} finally {
+				IoStats.this.record(IoStats.Op.CLOSE, t0);
+				IoStats.this.closes.increment();
+			}
+		}
+	}
+
+	private class CountingWriter extends FilterWriter {
+
+		CountingWriter(Writer out) {
+			super(out);
+		}
+
+		private boolean closed = false;
+
+		@Override
+		public void write(int c) throws IOException {
+			long t0 = System.nanoTime();
+			this.out.write(c);
+			IoStats.this.record(IoStats.Op.WRITE, t0);
+			IoStats.this.charsWritten.increment();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			long t0 = System.nanoTime();
+			this.out.write(cbuf, off, len);
+			IoStats.this.record(IoStats.Op.WRITE, t0);
+			IoStats.this.charsWritten.add(len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			long t0 = System.nanoTime();
+			this.out.write(str, off, len);
+			IoStats.this.record(IoStats.Op.WRITE, t0);
+			IoStats.this.charsWritten.add(len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long t0 = System.nanoTime();
+			this.out.flush();
+			IoStats.this.record(IoStats.Op.FLUSH, t0);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			long t0 = System.nanoTime();
+			try {
+				this.out.close();
+			} finally {
+				IoStats.this.record(IoStats.Op.CLOSE, t0);
+				IoStats.this.closes.increment();
+			}
+		}
+	}
+}
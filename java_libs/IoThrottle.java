@@ -0,0 +1,286 @@
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One token-bucket rate limit on bytes per second and operations per second, shared by all the threads using it.
+ * Background I/O wrapped by one throttle is capped as a whole, leaving the rest of the disk to the foreground.
+ * <p>
+ * Each bucket holds up to one second of tokens, so short bursts go at full speed after idling.
+ * The callers reserve their tokens in turn and wait outside any lock, so one big request
+ * delays the ones after it but never blocks the threads not using this throttle.
+ * <p>
+ * Thread-safe.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class IoThrottle {
+
+	/**
+	 * @param bytesPerSecond
+	 * 		The max bytes per second, chars for the readers and writers. &lt;=0 = no limit.
+	 * @param opsPerSecond
+	 * 		The max operations per second: one read, write, flush or file deletion each. &lt;=0 = no limit.
+	 */
+	public IoThrottle(long bytesPerSecond, long opsPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.opsPerSecond = opsPerSecond;
+		this.bytes = Math.max(bytesPerSecond, 0);
+		this.ops = Math.max(opsPerSecond, 0);
+		this.lastRefill = System.nanoTime();
+	}
+
+	private final long bytesPerSecond;
+	private final long opsPerSecond;
+	// The tokens left, negative when reserved ahead. Guarded by this.
+	private double bytes;
+	private double ops;
+	private long lastRefill;
+
+	/**
+	 * Take the tokens of one operation moving the bytes, waiting till they are there
+	 *
+	 * @param n
+	 * 		The bytes moved
+	 * @throws InterruptedIOException
+	 * 		If interrupted while waiting
+	 */
+	public void acquire(long n) throws InterruptedIOException {
+		long waitNanos = this.reserve(n);
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttled");
+			}
+		}
+	}
+
+	/**
+	 * Throttle the reads of the stream. The bytes are paid for after each read, once known.
+	 *
+	 * @param in
+	 * 		The stream to throttle
+	 * @return
+	 * 		The throttled stream
+	 */
+	public InputStream wrap(InputStream in) {
+		return new ThrottledInputStream(in);
+	}
+
+	/**
+	 * Throttle the writes and flushes of the stream
+	 *
+	 * @param out
+	 * 		The stream to throttle
+	 * @return
+	 * 		The throttled stream
+	 */
+	public OutputStream wrap(OutputStream out) {
+		return new ThrottledOutputStream(out);
+	}
+
+	/**
+	 * Throttle the reads of the reader, counting chars as bytes. Wrap the underlying stream instead to throttle the bytes.
+	 *
+	 * @param r
+	 * 		The reader to throttle
+	 * @return
+	 * 		The throttled reader
+	 */
+	public Reader wrap(Reader r) {
+		return new ThrottledReader(r);
+	}
+
+	/**
+	 * Throttle the writes and flushes of the writer, counting chars as bytes. Wrap the underlying stream instead to throttle the bytes.
+	 *
+	 * @param w
+	 * 		The writer to throttle
+	 * @return
+	 * 		The throttled writer
+	 */
+	public Writer wrap(Writer w) {
+		return new ThrottledWriter(w);
+	}
+
+	/**
+	 * Delete one file or one directory(including all stuff inside), one operation per file or dir deleted.
+	 * Single-threaded and depth first, since the throttle rather than the parallelism sets the pace.
+	 *
+	 * @param f
+	 * 		The File object to be deleted
+	 * @return
+	 * 		The count of files and dirs deleted
+	 * @throws IOException
+	 * 		If failing to delete any one, or interrupted while throttled
+	 */
+	public long delete(File f) throws IOException {
+		return this.delete(f.toPath());
+	}
+
+	private long delete(Path p) throws IOException {
+
+		long n = 0;
+		if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+			DirectoryStream<Path> ds = Files.newDirectoryStream(p);
+			try {
+				for (Path sub : ds) {
+					n += this.delete(sub);
+				}
+			} catch (DirectoryIteratorException e) {
+				throw e.getCause();
+			} finally {
+				ds.close();
+			}
+		}
+
+		this.acquire(0);
+		if (Files.deleteIfExists(p)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return
+	 * 		The nanos to wait before the reserved tokens are there
+	 */
+	private synchronized long reserve(long n) {
+
+		long now = System.nanoTime();
+		double elapsed = (now - this.lastRefill) / 1e9;
+		this.lastRefill = now;
+
+		long wait = 0;
+		if (this.bytesPerSecond > 0) {
+			this.bytes = Math.min(this.bytes + elapsed * this.bytesPerSecond, this.bytesPerSecond) - n;
+			if (this.bytes < 0) {
+				wait = (long) (-this.bytes / this.bytesPerSecond * 1e9);
+			}
+		}
+		if (this.opsPerSecond > 0) {
+			this.ops = Math.min(this.ops + elapsed * this.opsPerSecond, this.opsPerSecond) - 1;
+			if (this.ops < 0) {
+				wait = Math.max(wait, (long) (-this.ops / this.opsPerSecond * 1e9));
+			}
+		}
+		return wait;
+	}
+
+	private class ThrottledInputStream extends FilterInputStream {
+
+		ThrottledInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			IoThrottle.this.acquire(b < 0 ? 0 : 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = this.in.read(b, off, len);
+			IoThrottle.this.acquire(Math.max(n, 0));
+			return n;
+		}
+	}
+
+	private class ThrottledOutputStream extends FilterOutputStream {
+
+		ThrottledOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			IoThrottle.this.acquire(1);
+			this.out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			// Not the byte-by-byte loop of FilterOutputStream
+			IoThrottle.this.acquire(len);
+			this.out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			IoThrottle.this.acquire(0);
+			this.out.flush();
+		}
+	}
+
+	private class ThrottledReader extends FilterReader {
+
+		ThrottledReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = this.in.read();
+			IoThrottle.this.acquire(c < 0 ? 0 : 1);
+			return c;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int n = this.in.read(cbuf, off, len);
+			IoThrottle.this.acquire(Math.max(n, 0));
+			return n;
+		}
+	}
+
+	private class ThrottledWriter extends FilterWriter {
+
+		ThrottledWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			IoThrottle.this.acquire(1);
+			this.out.write(c);
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			IoThrottle.this.acquire(len);
+			this.out.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			IoThrottle.this.acquire(len);
+			this.out.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			IoThrottle.this.acquire(0);
+			this.out.flush();
+		}
+	}
+}
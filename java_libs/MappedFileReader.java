@@ -0,0 +1,301 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped view of one file.
+ * The file is mapped in chunks so files larger than 2GB are covered as well.
+ * Bytes are served straight from the page cache, no copying into a java.io.BufferedReader.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class MappedFileReader implements Closeable {
+
+	/**
+	 * The default chunk size to map, 1GB
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+	/**
+	 * Visit bytes one by one
+	 */
+	public interface ByteVisitor {
+		/**
+		 * @param pos
+		 * 		The position of the byte in the file
+		 * @param b
+		 * 		The byte
+		 * @return
+		 * 		True = go on visiting. False = stop.
+		 */
+		boolean visit(long pos, byte b);
+	}
+
+	/**
+	 * Visit lines one by one
+	 */
+	public interface LineVisitor {
+		/**
+		 * @param pos
+		 * 		The position of the line start in the file
+		 * @param line
+		 * 		The line bytes between the buffer position and limit, not including "\n" or "\r\n".
+		 * 		The buffer is reused and only valid during this call, so copy out if need to keep it.
+		 * @return
+		 * 		True = go on visiting. False = stop.
+		 */
+		boolean visit(long pos, ByteBuffer line);
+	}
+
+	/**
+	 * @param f
+	 * 		The file to map. Shall not be directory.
+	 * @param chunkSize
+	 * 		The bytes of each mapped chunk
+	 * @throws IOException
+	 */
+	public MappedFileReader(File f, int chunkSize) throws IOException {
+
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+		}
+
+		this.chunkSize = chunkSize;
+
+		FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		try {
+			this.length = fc.size();
+			int count = (int) ((this.length + chunkSize - 1) / chunkSize);
+			this.chunks = new MappedByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				long start = (long) i * chunkSize;
+				this.chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, this.length - start));
+			}
+		} finally {
+			// The mappings stay valid after the channel is closed
+			fc.close();
+		}
+	}
+
+	/**
+	 * Equal to MappedFileReader(f, DEFAULT_CHUNK_SIZE)
+	 *
+	 * @param f
+	 * 		Refer to MappedFileReader(File f, int chunkSize)
+	 * @throws IOException
+	 */
+	public MappedFileReader(File f) throws IOException {
+		this(f, DEFAULT_CHUNK_SIZE);
+	}
+
+	private final int chunkSize;
+	private final long length;
+	private MappedByteBuffer[] chunks;
+	private boolean closed = false;
+
+	/**
+	 * @return
+	 * 		The file length in bytes
+	 */
+	public long length() {
+		return this.length;
+	}
+
+	/**
+	 * Get one byte
+	 *
+	 * @param pos
+	 * 		The position in the file
+	 * @return
+	 * 		The byte
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public byte get(long pos) {
+		this.ensureOpen();
+		if (pos < 0 || pos >= this.length) {
+			throw new IndexOutOfBoundsException("Position " + pos + " out of file length " + this.length);
+		}
+		return this.chunk((int) (pos / this.chunkSize)).get((int) (pos % this.chunkSize));
+	}
+
+	/**
+	 * Read bytes into one array
+	 *
+	 * @param pos
+	 * 		The position in the file to start reading
+	 * @param dst
+	 * 		The array to read into
+	 * @param off
+	 * 		The offset in the array
+	 * @param len
+	 * 		The max count of bytes to read
+	 * @return
+	 * 		The count of bytes read. -1 if pos is at or after the end of the file.
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public int read(long pos, byte[] dst, int off, int len) {
+
+		this.ensureOpen();
+
+		if (pos >= this.length) {
+			return -1;
+		}
+
+		int total = 0;
+		len = (int) Math.min(len, this.length - pos);
+		while (total < len) {
+			ByteBuffer c = this.chunk((int) (pos / this.chunkSize)).duplicate();
+			c.position((int) (pos % this.chunkSize));
+			int n = Math.min(c.remaining(), len - total);
+			c.get(dst, off + total, n);
+			total += n;
+			pos += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Visit bytes from the start of the file
+	 *
+	 * @param visitor
+	 * 		The visitor
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public void forEachByte(MappedFileReader.ByteVisitor visitor) {
+
+		this.ensureOpen();
+
+		for (int i = 0; i < this.chunks.length; i++) {
+			ByteBuffer c = this.chunk(i);
+			long base = (long) i * this.chunkSize;
+			int limit = c.limit();
+			for (int j = 0; j < limit; j++) {
+				if (!visitor.visit(base + j, c.get(j))) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visit lines from the start of the file.
+	 * Lines are handed out as slices of the mapped chunks, no decoding and no String allocated.
+	 * Only the lines straddling two chunks get copied.
+	 *
+	 * @param visitor
+	 * 		The visitor
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public void forEachLine(MappedFileReader.LineVisitor visitor) {
+
+		this.ensureOpen();
+
+		// Holding the head part of one line straddling chunks
+		ByteBuffer carry = null;
+		long carryPos = 0;
+
+		for (int i = 0; i < this.chunks.length; i++) {
+
+			ByteBuffer c = this.chunk(i).duplicate();
+			long base = (long) i * this.chunkSize;
+			int limit = c.limit();
+			int start = 0;
+
+			for (int j = 0; j < limit; j++) {
+
+				if (c.get(j) != '\n') {
+					continue;
+				}
+
+				boolean goOn;
+				if (carry != null && carry.position() > 0) {
+					carry = MappedFileReader.append(carry, c, start, j);
+					carry.flip();
+					MappedFileReader.trimCR(carry);
+					goOn = visitor.visit(carryPos, carry);
+					carry.clear();
+				} else {
+					c.limit(j).position(start);
+					MappedFileReader.trimCR(c);
+					goOn = visitor.visit(base + start, c);
+					c.clear();
+				}
+
+				if (!goOn) {
+					return;
+				}
+				start = j + 1;
+			}
+
+			if (start < limit) {
+				// The line goes on into the next chunk
+				if (carry == null) {
+					carry = ByteBuffer.allocate(Math.max(256, limit - start));
+				}
+				if (carry.position() == 0) {
+					carryPos = base + start;
+				}
+				carry = MappedFileReader.append(carry, c, start, limit);
+			}
+		}
+
+		if (carry != null && carry.position() > 0) {
+			// The last line without "\n"
+			carry.flip();
+			MappedFileReader.trimCR(carry);
+			visitor.visit(carryPos, carry);
+		}
+	}
+
+	/**
+	 * Drop the mappings. The mapped memory is released once the buffers get garbage collected.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.chunks = new MappedByteBuffer[0];
+	}
+
+	private void ensureOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("The reader is closed!");
+		}
+	}
+
+	private ByteBuffer chunk(int i) {
+		return this.chunks[i];
+	}
+
+	private static ByteBuffer append(ByteBuffer dst, ByteBuffer src, int from, int to) {
+
+		int n = to - from;
+		if (dst.remaining() < n) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(dst.capacity() * 2, dst.position() + n));
+			dst.flip();
+			bigger.put(dst);
+			dst = bigger;
+		}
+
+		ByteBuffer s = src.duplicate();
+		s.limit(to).position(from);
+		dst.put(s);
+		return dst;
+	}
+
+	private static void trimCR(ByteBuffer line) {
+		int end = line.limit();
+		if (end > line.position() && line.get(end - 1) == '\r') {
+			line.limit(end - 1);
+		}
+	}
+}
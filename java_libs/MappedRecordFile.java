@@ -0,0 +1,355 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A file of fixed-size binary records, memory-mapped for O(1) get and put by index.
+ * <p>
+ * The file starts with one 16-byte header: the magic, the record size and the record count.
+ * The records follow back to back. The file is mapped in regions holding whole records,
+ * so files larger than 2GB work and no record straddles two regions.
+ * The capacity doubles when full, by growing the file and remapping its tail.
+ * <p>
+ * Thread-safe. Gets and puts run in parallel, except that one record being put is never read half-written.
+ * Appends and growing run alone.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class MappedRecordFile implements Closeable {
+
+	private static final int MAGIC = 0x52454331; // "REC1"
+	private static final int HEADER_SIZE = 16;
+	private static final long MIN_CAPACITY = 64;
+	private static final int MAX_REGION_BYTES = 1 << 30;
+	// The count of the record lock stripes, one power of 2
+	private static final int STRIPES = 64;
+
+	/**
+	 * Open(if not existing, then create) one record file
+	 *
+	 * @param f
+	 * 		The record file
+	 * @param recordSize
+	 * 		The bytes of one record. Shall match the one the existing file was created with.
+	 * @throws IOException
+	 */
+	public MappedRecordFile(File f, int recordSize) throws IOException {
+
+		if (recordSize <= 0 || recordSize > MAX_REGION_BYTES) {
+			throw new IllegalArgumentException("Illegal record size: " + recordSize);
+		}
+
+		this.recordSize = recordSize;
+		this.recordsPerRegion = MAX_REGION_BYTES / recordSize;
+
+		File opened = FileUtil.openFile(f.getAbsolutePath());
+		this.raf = new RandomAccessFile(opened, "rw");
+		this.ch = this.raf.getChannel();
+
+		try {
+			if (this.raf.length() < HEADER_SIZE) {
+				this.raf.setLength(HEADER_SIZE);
+				this.header = this.ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				this.header.putInt(0, MAGIC);
+				this.header.putInt(4, recordSize);
+				this.header.putLong(8, 0);
+			} else {
+				this.header = this.ch.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if (this.header.getInt(0) != MAGIC) {
+					throw new IOException(f.getPath() + " -> Not one record file!");
+				}
+				if (this.header.getInt(4) != recordSize) {
+					throw new IOException(f.getPath() + " -> Record size " + this.header.getInt(4) + " but " + recordSize + " given!");
+				}
+			}
+
+			this.count = this.header.getLong(8);
+			long capacity = (this.raf.length() - HEADER_SIZE) / recordSize;
+			this.mapTo(Math.max(capacity, Math.max(this.count, MIN_CAPACITY)));
+
+		} catch (IOException e) {
+			this.raf.close();
+			throw e;
+		}
+	}
+
+	private final int recordSize;
+	private final long recordsPerRegion;
+	private final RandomAccessFile raf;
+	private final FileChannel ch;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	// Held inside the read lock of the whole file, so the puts of different records still run in parallel
+	private final ReentrantReadWriteLock[] stripes = MappedRecordFile.newStripes();
+	private final MappedByteBuffer header;
+	private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+	private long capacity = 0;
+	private volatile long count;
+	private boolean closed = false;
+
+	private static ReentrantReadWriteLock[] newStripes() {
+		ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantReadWriteLock();
+		}
+		return locks;
+	}
+
+	/**
+	 * @return
+	 * 		The bytes of one record
+	 */
+	public int getRecordSize() {
+		return this.recordSize;
+	}
+
+	/**
+	 * @return
+	 * 		The count of the records
+	 */
+	public long size() {
+		return this.count;
+	}
+
+	/**
+	 * Read one record
+	 *
+	 * @param index
+	 * 		The record index
+	 * @param dst
+	 * 		The array to read into, at least the record size long
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public void get(long index, byte[] dst) {
+		this.lock.readLock().lock();
+		try {
+			this.ensureOpen();
+			ByteBuffer b = this.at(index);
+			ReentrantReadWriteLock stripe = this.stripe(index);
+			stripe.readLock().lock();
+			try {
+				b.get(dst, 0, this.recordSize);
+			} finally {
+				stripe.readLock().unlock();
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Read one record
+	 *
+	 * @param index
+	 * 		The record index
+	 * @return
+	 * 		The record bytes
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public byte[] get(long index) {
+		byte[] dst = new byte[this.recordSize];
+		this.get(index, dst);
+		return dst;
+	}
+
+	/**
+	 * Overwrite one record
+	 *
+	 * @param index
+	 * 		The record index
+	 * @param src
+	 * 		The record bytes, exactly the record size long
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public void put(long index, byte[] src) {
+		this.checkLength(src.length, 1);
+		this.lock.readLock().lock();
+		try {
+			this.ensureOpen();
+			ByteBuffer b = this.at(index);
+			ReentrantReadWriteLock stripe = this.stripe(index);
+			stripe.writeLock().lock();
+			try {
+				b.put(src, 0, this.recordSize);
+			} finally {
+				stripe.writeLock().unlock();
+			}
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Append one record
+	 *
+	 * @param src
+	 * 		The record bytes, exactly the record size long
+	 * @return
+	 * 		The index of the appended record
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public long append(byte[] src) throws IOException {
+		return this.appendAll(src, 0, 1);
+	}
+
+	/**
+	 * Append many records back to back, growing at most once
+	 *
+	 * @param src
+	 * 		The records bytes
+	 * @param off
+	 * 		The offset in src of the first record
+	 * @param n
+	 * 		The count of the records
+	 * @return
+	 * 		The index of the first appended record
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public long appendAll(byte[] src, int off, int n) throws IOException {
+
+		this.checkLength(src.length - off, n);
+
+		this.lock.writeLock().lock();
+		try {
+			this.ensureOpen();
+			long first = this.count;
+			long end = first + n;
+			if (end > this.capacity) {
+				this.mapTo(Math.max(end, this.capacity * 2));
+			}
+
+			// Fill region by region
+			long index = first;
+			while (index < end) {
+				ByteBuffer b = this.slot(index);
+				int k = (int) Math.min(end - index, b.remaining() / this.recordSize);
+				b.put(src, off, k * this.recordSize);
+				off += k * this.recordSize;
+				index += k;
+			}
+
+			this.count = end;
+			this.header.putLong(8, end);
+			return first;
+
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Sync the records and the header to the disk
+	 *
+	 * @throws IllegalStateException
+	 * 		If closed
+	 */
+	public void force() {
+		this.lock.readLock().lock();
+		try {
+			this.ensureOpen();
+			for (MappedByteBuffer r : this.regions) {
+				r.force();
+			}
+			this.header.force();
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Sync and close. The unused capacity is left in the file for the next opening. Safe to call more than once.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.lock.writeLock().lock();
+		try {
+			if (this.closed) {
+				return;
+			}
+			this.force();
+			this.closed = true;
+			this.regions.clear();
+			this.raf.close();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void ensureOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("The record file is closed!");
+		}
+	}
+
+	private ReentrantReadWriteLock stripe(long index) {
+		return this.stripes[(int) (index & (STRIPES - 1))];
+	}
+
+	private void checkLength(int len, int n) {
+		if (n < 0 || len < (long) n * this.recordSize) {
+			throw new IllegalArgumentException("Need " + n + " records of " + this.recordSize + " bytes but " + len + " bytes given");
+		}
+	}
+
+	/**
+	 * @return
+	 * 		One buffer positioned at the record
+	 */
+	private ByteBuffer at(long index) {
+		if (index < 0 || index >= this.count) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of size " + this.count);
+		}
+		return this.slot(index);
+	}
+
+	private ByteBuffer slot(long index) {
+		ByteBuffer b = this.regions.get((int) (index / this.recordsPerRegion)).duplicate();
+		b.position((int) (index % this.recordsPerRegion) * this.recordSize);
+		return b;
+	}
+
+	/**
+	 * Grow the file and the mappings to hold the capacity. Called under the write lock or in the constructor.
+	 */
+	private void mapTo(long capacity) throws IOException {
+
+		long fileLength = HEADER_SIZE + capacity * this.recordSize;
+		if (this.raf.length() < fileLength) {
+			this.raf.setLength(fileLength);
+		}
+
+		// The last region may be partial, remap it together with the new ones
+		if (!this.regions.isEmpty()) {
+			MappedByteBuffer last = this.regions.get(this.regions.size() - 1);
+			if (last.capacity() < this.recordsPerRegion * this.recordSize) {
+				this.regions.remove(this.regions.size() - 1);
+			}
+		}
+
+		long start = this.regions.size() * this.recordsPerRegion;
+		while (start < capacity) {
+			long n = Math.min(this.recordsPerRegion, capacity - start);
+			this.regions.add(this.ch.map(
+				FileChannel.MapMode.READ_WRITE, HEADER_SIZE + start * this.recordSize, n * this.recordSize
+			));
+			start += n;
+		}
+
+		this.capacity = capacity;
+	}
+}
@@ -0,0 +1,268 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream compressing in parallel, pigz-style.
+ * The input is cut into blocks, each block is deflated into one gzip member on the worker pool,
+ * then the members are written out in order. Concatenated members are one standard gzip file
+ * which gunzip and java.util.zip.GZIPInputStream read as a whole.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+	/**
+	 * The default block size, 128K like pigz
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static ExecutorService sharedPool = null;
+
+	private static synchronized ExecutorService getSharedPool() {
+		if (ParallelGzipOutputStream.sharedPool == null) {
+			ParallelGzipOutputStream.sharedPool = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+
+				private final AtomicInteger seq = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ParallelGzip-worker-" + this.seq.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return ParallelGzipOutputStream.sharedPool;
+	}
+
+	/**
+	 * @param out
+	 * 		The stream to write the gzip data into
+	 * @param threads
+	 * 		The max count of blocks being compressed at the same time for this stream, also capped by the executor's threads.
+	 * 		As many blocks are submitted and not written out yet at most, and their arrays are reused.
+	 * @param blockSize
+	 * 		The bytes of input per block
+	 * @param level
+	 * 		The compression level, refer to java.util.zip.Deflater
+	 * @param executor
+	 * 		The executor doing the compressing. Null = one pool shared by all the streams, sized to the processors.
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level, ExecutorService executor) {
+
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Illegal threads: " + threads);
+		}
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("Illegal block size: " + blockSize);
+		}
+
+		this.out = out;
+		// Nothing is queued past the cap, so no more than threads blocks are ever compressed at once
+		this.maxInFlight = threads;
+		this.blockSize = blockSize;
+		this.level = level;
+		this.executor = executor != null ? executor : ParallelGzipOutputStream.getSharedPool();
+		this.block = new byte[blockSize];
+	}
+
+	/**
+	 * Equal to ParallelGzipOutputStream(out, threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, null)
+	 *
+	 * @param out
+	 * 		Refer to ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level, ExecutorService executor)
+	 * @param threads
+	 * 		Refer to ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level, ExecutorService executor)
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads) {
+		this(out, threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION, null);
+	}
+
+	private final OutputStream out;
+	private final int maxInFlight;
+	private final int blockSize;
+	private final int level;
+	private final ExecutorService executor;
+	private final ArrayDeque<Member> inFlight = new ArrayDeque<Member>();
+	// The block arrays written out already, ready to fill again
+	private final ArrayDeque<byte[]> freeBlocks = new ArrayDeque<byte[]>();
+	private byte[] block;
+	private int blockLen = 0;
+	private boolean closed = false;
+	private boolean anyMember = false;
+
+	@Override
+	public void write(int b) throws IOException {
+		this.ensureOpen();
+		this.block[this.blockLen++] = (byte) b;
+		if (this.blockLen == this.blockSize) {
+			this.submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.ensureOpen();
+		while (len > 0) {
+			int n = Math.min(len, this.blockSize - this.blockLen);
+			System.arraycopy(b, off, this.block, this.blockLen, n);
+			this.blockLen += n;
+			off += n;
+			len -= n;
+			if (this.blockLen == this.blockSize) {
+				this.submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compress what has been written so far and write all out.
+	 * This ends the current member early, so flushing often hurts the compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		this.ensureOpen();
+		if (this.blockLen > 0) {
+			this.submitBlock();
+		}
+		while (!this.inFlight.isEmpty()) {
+			this.writeHead();
+		}
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (this.closed) {
+			return;
+		}
+
+		try {
+			if (!this.anyMember && this.blockLen == 0) {
+				// An empty input still needs one member to be a valid gzip file
+				this.submitBlock();
+			}
+			this.flush();
+		} finally {
+			this.closed = true;
+			for (Member m : this.inFlight) {
+				m.gz.cancel(true);
+			}
+			this.inFlight.clear();
+			this.freeBlocks.clear();
+			this.out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("The stream is closed!");
+		}
+	}
+
+	private void submitBlock() throws IOException {
+
+		final byte[] data = this.block;
+		final int len = this.blockLen;
+		final int lv = this.level;
+
+		this.inFlight.add(new Member(data, this.executor.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return ParallelGzipOutputStream.gzipMember(data, len, lv);
+			}
+		})));
+
+		this.anyMember = true;
+
+		// The submitted block is owned by the task now, till its member is written out
+		byte[] next = this.freeBlocks.poll();
+		this.block = next != null ? next : new byte[this.blockSize];
+		this.blockLen = 0;
+
+		while (this.inFlight.size() >= this.maxInFlight) {
+			this.writeHead();
+		}
+	}
+
+	private void writeHead() throws IOException {
+		try {
+			Member m = this.inFlight.poll();
+			this.out.write(m.gz.get());
+			this.freeBlocks.add(m.block);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Fail to compress one block", e.getCause());
+		}
+	}
+
+	/**
+	 * One block submitted and its compressed member to come
+	 */
+	private static class Member {
+
+		Member(byte[] block, Future<byte[]> gz) {
+			this.block = block;
+			this.gz = gz;
+		}
+
+		final byte[] block;
+		final Future<byte[]> gz;
+	}
+
+	/**
+	 * Compress one block into one complete gzip member, refer to RFC 1952
+	 */
+	private static byte[] gzipMember(byte[] data, int len, int level) {
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(len / 2 + 64);
+
+		// ID1, ID2, CM = deflate, FLG, MTIME(4), XFL, OS = unknown
+		bos.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff }, 0, 10);
+
+		Deflater def = new Deflater(level, true);
+		try {
+			def.setInput(data, 0, len);
+			def.finish();
+			byte[] buf = new byte[Math.max(512, len / 2)];
+			while (!def.finished()) {
+				int n = def.deflate(buf);
+				bos.write(buf, 0, n);
+			}
+		} finally {
+			def.end();
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, len);
+		ParallelGzipOutputStream.writeIntLE(bos, (int) crc.getValue());
+		ParallelGzipOutputStream.writeIntLE(bos, len);
+
+		return bos.toByteArray();
+	}
+
+	private static void writeIntLE(ByteArrayOutputStream bos, int v) {
+		bos.write(v);
+		bos.write(v >>> 8);
+		bos.write(v >>> 16);
+		bos.write(v >>> 24);
+	}
+}
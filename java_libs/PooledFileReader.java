@@ -0,0 +1,244 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffered file reader reading through one FileChannel.
+ * The byte and char buffers are taken from one BufferPool and returned on close,
+ * so opening many files does not churn fresh buffers for each one.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class PooledFileReader extends Reader {
+
+	/**
+	 * @param f
+	 * 		The file to read. Shall not be directory.
+	 * @param charset
+	 * 		The charset to decode the file
+	 * @param bufferSize
+	 * 		The capacity of the byte and char buffers, at least BufferPool.MIN_BUFFER_SIZE, rounded up to one power of 2
+	 * @param pool
+	 * 		The pool to take the buffers from
+	 * @throws IOException
+	 */
+	public PooledFileReader(File f, Charset charset, int bufferSize, BufferPool pool) throws IOException {
+
+		this.decoder = charset.newDecoder()
+							  .onMalformedInput(CodingErrorAction.REPLACE)
+							  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		this.pool = pool;
+		try {
+			this.bb = pool.acquireBytes(Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE));
+			this.cb = pool.acquireChars(Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE));
+		} catch (RuntimeException e) {
+			if (this.bb != null) {
+				pool.releaseBytes(this.bb);
+			}
+			this.ch.close();
+			throw e;
+		}
+		// Both start empty
+		this.bb.flip();
+		this.cb.flip();
+	}
+
+	private final FileChannel ch;
+	private final CharsetDecoder decoder;
+	private final BufferPool pool;
+	private ByteBuffer bb;
+	private CharBuffer cb;
+	private boolean eof = false;
+	private boolean drained = false;
+	// Set when the last char served was '\r' by readLine, so the following '\n' is skipped
+	private boolean skipLF = false;
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			if (len == 0) {
+				return 0;
+			}
+			if (!this.cb.hasRemaining() && !this.fill()) {
+				return -1;
+			}
+			if (this.skipLF) {
+				this.skipLF = false;
+				if (this.cb.get(this.cb.position()) == '\n') {
+					this.cb.get();
+					if (!this.cb.hasRemaining() && !this.fill()) {
+						return -1;
+					}
+				}
+			}
+			int n = Math.min(len, this.cb.remaining());
+			this.cb.get(cbuf, off, n);
+			return n;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			if (!this.cb.hasRemaining() && !this.fill()) {
+				return -1;
+			}
+			if (this.skipLF) {
+				this.skipLF = false;
+				if (this.cb.get(this.cb.position()) == '\n') {
+					this.cb.get();
+					if (!this.cb.hasRemaining() && !this.fill()) {
+						return -1;
+					}
+				}
+			}
+			return this.cb.get();
+		}
+	}
+
+	/**
+	 * Read one line, like java.io.BufferedReader.readLine
+	 *
+	 * @return
+	 * 		The line not including any line-termination chars. Null if the end of the file is reached.
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		synchronized (this.lock) {
+
+			this.ensureOpen();
+			StringBuilder sb = null;
+
+			while (true) {
+
+				if (!this.cb.hasRemaining() && !this.fill()) {
+					return sb == null ? null : sb.toString();
+				}
+
+				if (this.skipLF) {
+					this.skipLF = false;
+					if (this.cb.get(this.cb.position()) == '\n') {
+						this.cb.get();
+						continue;
+					}
+				}
+
+				int start = this.cb.position();
+				int limit = this.cb.limit();
+				for (int i = start; i < limit; i++) {
+					char c = this.cb.get(i);
+					if (c == '\n' || c == '\r') {
+						String line;
+						if (sb == null) {
+							line = new String(this.cb.array(), this.cb.arrayOffset() + start, i - start);
+						} else {
+							sb.append(this.cb.array(), this.cb.arrayOffset() + start, i - start);
+							line = sb.toString();
+						}
+						this.cb.position(i + 1);
+						this.skipLF = (c == '\r');
+						return line;
+					}
+				}
+
+				if (sb == null) {
+					sb = new StringBuilder(limit - start + 80);
+				}
+				sb.append(this.cb.array(), this.cb.arrayOffset() + start, limit - start);
+				this.cb.position(limit);
+			}
+		}
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			return this.cb.hasRemaining();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.lock) {
+
+			if (this.cb == null) {
+				return;
+			}
+
+			try {
+				this.ch.close();
+			} finally {
+				this.pool.releaseBytes(this.bb);
+				this.pool.releaseChars(this.cb);
+				this.bb = null;
+				this.cb = null;
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.cb == null) {
+			throw new IOException("The reader is closed!");
+		}
+	}
+
+	/**
+	 * Decode more chars into the char buffer which is drained
+	 *
+	 * @return
+	 * 		False if no more chars
+	 */
+	private boolean fill() throws IOException {
+
+		if (this.drained) {
+			return false;
+		}
+
+		this.cb.clear();
+		try {
+			while (true) {
+
+				CoderResult r = this.decoder.decode(this.bb, this.cb, this.eof);
+				if (r.isError()) {
+					throw new CharacterCodingException();
+				}
+
+				if (this.eof) {
+					if (r.isOverflow()) {
+						break;
+					}
+					this.decoder.flush(this.cb);
+					this.drained = true;
+					break;
+				}
+
+				if (this.cb.position() > 0) {
+					break;
+				}
+
+				// Need more bytes. The bytes left, if any, are one split char so move them ahead.
+				this.bb.compact();
+				this.eof = this.ch.read(this.bb) < 0;
+				this.bb.flip();
+			}
+		} finally {
+			this.cb.flip();
+		}
+		return this.cb.hasRemaining();
+	}
+}
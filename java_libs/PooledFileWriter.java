@@ -0,0 +1,182 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A buffered file writer writing through one FileChannel.
+ * The char and byte buffers are taken from one BufferPool and returned on close,
+ * so opening many files does not churn fresh buffers for each one.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class PooledFileWriter extends Writer {
+
+	/**
+	 * @param f
+	 * 		The file to write. If existing, then overwrite.
+	 * @param charset
+	 * 		The charset to encode the text
+	 * @param bufferSize
+	 * 		The capacity of the char and byte buffers, at least BufferPool.MIN_BUFFER_SIZE, rounded up to one power of 2
+	 * @param pool
+	 * 		The pool to take the buffers from
+	 * @throws IOException
+	 */
+	public PooledFileWriter(File f, Charset charset, int bufferSize, BufferPool pool) throws IOException {
+
+		// Before opening, so one charset unable to encode neither truncates the file nor leaks the channel
+		this.encoder = charset.newEncoder()
+							  .onMalformedInput(CodingErrorAction.REPLACE)
+							  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.ch = FileChannel.open(
+			f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
+		);
+		this.pool = pool;
+		try {
+			this.cb = pool.acquireChars(Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE));
+			this.bb = pool.acquireBytes(Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE));
+		} catch (RuntimeException e) {
+			if (this.cb != null) {
+				pool.releaseChars(this.cb);
+			}
+			this.ch.close();
+			throw e;
+		}
+	}
+
+	private final FileChannel ch;
+	private final CharsetEncoder encoder;
+	private final BufferPool pool;
+	private CharBuffer cb;
+	private ByteBuffer bb;
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			while (len > 0) {
+				int n = Math.min(len, this.cb.remaining());
+				this.cb.put(cbuf, off, n);
+				off += n;
+				len -= n;
+				if (!this.cb.hasRemaining()) {
+					this.encodeChars(false);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			while (len > 0) {
+				int n = Math.min(len, this.cb.remaining());
+				this.cb.put(str, off, off + n);
+				off += n;
+				len -= n;
+				if (!this.cb.hasRemaining()) {
+					this.encodeChars(false);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			this.cb.put((char) c);
+			if (!this.cb.hasRemaining()) {
+				this.encodeChars(false);
+			}
+		}
+	}
+
+	/**
+	 * Write one line separator
+	 *
+	 * @throws IOException
+	 */
+	public void newLine() throws IOException {
+		this.write(System.lineSeparator());
+	}
+
+	/**
+	 * Push the buffered text down to the file. Not syncing to the disk.
+	 */
+	@Override
+	public void flush() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			this.encodeChars(false);
+			this.writeBytes();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.lock) {
+
+			if (this.cb == null) {
+				return;
+			}
+
+			try {
+				this.encodeChars(true);
+				while (this.encoder.flush(this.bb).isOverflow()) {
+					this.writeBytes();
+				}
+				this.writeBytes();
+			} finally {
+				this.ch.close();
+				this.pool.releaseChars(this.cb);
+				this.pool.releaseBytes(this.bb);
+				this.cb = null;
+				this.bb = null;
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.cb == null) {
+			throw new IOException("The writer is closed!");
+		}
+	}
+
+	private void encodeChars(boolean endOfInput) throws IOException {
+
+		this.cb.flip();
+		while (true) {
+			CoderResult r = this.encoder.encode(this.cb, this.bb, endOfInput);
+			if (r.isOverflow()) {
+				this.writeBytes();
+			} else if (r.isUnderflow()) {
+				break;
+			} else {
+				throw new CharacterCodingException();
+			}
+		}
+		// Keep the chars not yet encoded, e.g. one high surrogate waiting for its low surrogate
+		this.cb.compact();
+	}
+
+	private void writeBytes() throws IOException {
+		this.bb.flip();
+		while (this.bb.hasRemaining()) {
+			this.ch.write(this.bb);
+		}
+		this.bb.clear();
+	}
+}
@@ -0,0 +1,330 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A rolling, append-only log writer.
+ * Any thread may append. The appends are queued in one lock-free queue and written in batches by one writer thread,
+ * with one sync per batch, so the producers never fight for the disk or scatter their writes across files.
+ * The dir is synced too when one new segment is created, so the acked records never vanish with their file.
+ * <p>
+ * The log lives in one dir as segment files named by their first offset, e.g. "00000000000000000000.log".
+ * A new segment is rolled when the current one reaches the max size or has been open for the max age.
+ * The offset of one record is the count of the bytes appended before it across all segments.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class SegmentedLogWriter implements Closeable {
+
+	/**
+	 * The suffix of the segment files
+	 */
+	public static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * The max records written in one batch
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	/**
+	 * @param dir
+	 * 		The dir holding the segments. If not existing, then create with the first segment.
+	 * @param maxSegmentBytes
+	 * 		Roll one new segment when the current one reaches this size
+	 * @param maxSegmentMillis
+	 * 		Roll one new segment when the current one has been open this long. 0 = never roll by time.
+	 * @throws IOException
+	 */
+	public SegmentedLogWriter(File dir, long maxSegmentBytes, long maxSegmentMillis) throws IOException {
+
+		if (maxSegmentBytes <= 0) {
+			throw new IllegalArgumentException("Illegal max segment bytes: " + maxSegmentBytes);
+		}
+		if (maxSegmentMillis < 0) {
+			throw new IllegalArgumentException("Illegal max segment millis: " + maxSegmentMillis);
+		}
+
+		this.dir = dir;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxSegmentMillis = maxSegmentMillis;
+
+		// Go on after the last segment, if any
+		long start = 0;
+		File last = null;
+		if (dir.isDirectory()) {
+			DirListing names = new DirListing(dir, "*" + SEGMENT_SUFFIX, null);
+			try {
+				for (Path p : names) {
+					String name = p.getFileName().toString();
+					try {
+						long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+						if (last == null || base >= start) {
+							start = base;
+							last = p.toFile();
+						}
+					} catch (NumberFormatException e) {
+						// Not one segment
+					}
+				}
+			} finally {
+				names.close();
+			}
+		}
+
+		if (last != null) {
+			this.openSegment(last, start);
+			this.offset = start + this.segment.size();
+		} else {
+			boolean created = !dir.isDirectory();
+			this.openSegment(this.segmentFile(0), 0);
+			this.offset = 0;
+			if (created) {
+				// The new dir's own entry too
+				AtomicFileWriter.syncDir(dir.getAbsoluteFile().getParentFile());
+			}
+		}
+
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				SegmentedLogWriter.this.writeLoop();
+			}
+		}, "SegmentedLogWriter-" + dir.getName());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	private final File dir;
+	private final long maxSegmentBytes;
+	private final long maxSegmentMillis;
+	private final Thread writer;
+	private final ConcurrentLinkedQueue<Append> queue = new ConcurrentLinkedQueue<Append>();
+	private volatile boolean closed = false;
+	// The error the writer thread died of, if any
+	private volatile RuntimeException failure = null;
+
+	// Touched by the writer thread only, after the constructor
+	private FileChannel segment;
+	private long segmentBase;
+	private long segmentOpenedAt;
+	private long offset;
+
+	private static class Append {
+
+		Append(byte[] record) {
+			this.record = record;
+		}
+
+		final byte[] record;
+		final CompletableFuture<Long> ack = new CompletableFuture<Long>();
+	}
+
+	/**
+	 * Append one record. Returns at once.
+	 *
+	 * @param record
+	 * 		The record bytes. Shall not be changed after being appended.
+	 * @return
+	 * 		The future of the record offset, completed when the record is synced to the disk.
+	 * 		Failed if the log is closed or its writer thread has died of one unexpected error.
+	 */
+	public CompletableFuture<Long> append(byte[] record) {
+
+		Append a = new Append(record);
+		if (this.closed || this.failure != null) {
+			a.ack.completeExceptionally(this.rejection());
+			return a.ack;
+		}
+
+		this.queue.add(a);
+		LockSupport.unpark(this.writer);
+
+		if ((this.closed || this.failure != null) && this.queue.remove(a)) {
+			// Closed or failed in between and the writer may be gone
+			a.ack.completeExceptionally(this.rejection());
+		}
+		return a.ack;
+	}
+
+	private IOException rejection() {
+		RuntimeException e = this.failure;
+		return e != null ? new IOException("The log writer failed!", e) : new IOException("The log is closed!");
+	}
+
+	/**
+	 * @return
+	 * 		The dir holding the segments
+	 */
+	public File getDir() {
+		return this.dir;
+	}
+
+	/**
+	 * Stop accepting appends, write the queued ones and close the current segment
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+
+		List<Append> batch = new ArrayList<Append>(MAX_BATCH);
+		ByteBuffer[] bufs = new ByteBuffer[MAX_BATCH];
+
+		try {
+			while (true) {
+
+				Append a;
+				while (batch.size() < MAX_BATCH && (a = this.queue.poll()) != null) {
+					batch.add(a);
+				}
+
+				if (batch.isEmpty()) {
+					if (this.closed) {
+						break;
+					}
+					try {
+						this.rollIfAged();
+					} catch (IOException e) {
+						// Still on the old segment, try again next time
+					}
+					// Wake up by append, close, or in time to roll by age
+					LockSupport.parkNanos(this, this.maxSegmentMillis > 0 ? this.maxSegmentMillis * 500000L : 100000000L);
+					continue;
+				}
+
+				try {
+					this.writeBatch(batch, bufs);
+				} catch (IOException e) {
+					this.discardUnacked();
+					for (Append b : batch) {
+						// The ones acked before the failure stay acked
+						b.ack.completeExceptionally(e);
+					}
+				}
+				batch.clear();
+			}
+		} catch (RuntimeException e) {
+			// Not knowing what is in the segment anymore, so stop writing and fail the rest, queued or to come
+			this.failure = e;
+			IOException err = this.rejection();
+			for (Append b : batch) {
+				b.ack.completeExceptionally(err);
+			}
+			Append a;
+			while ((a = this.queue.poll()) != null) {
+				a.ack.completeExceptionally(err);
+			}
+		} finally {
+			try {
+				this.segment.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	private void writeBatch(List<Append> batch, ByteBuffer[] bufs) throws IOException {
+
+		int from = 0;
+		while (from < batch.size()) {
+
+			this.rollIfAged();
+			if (this.offset - this.segmentBase >= this.maxSegmentBytes) {
+				this.roll();
+			}
+
+			// Take as many as fit in the current segment, at least one
+			int to = from;
+			long size = this.offset - this.segmentBase;
+			do {
+				size += batch.get(to).record.length;
+				bufs[to - from] = ByteBuffer.wrap(batch.get(to).record);
+				to++;
+			} while (to < batch.size() && size + batch.get(to).record.length <= this.maxSegmentBytes);
+
+			// One gathering write and one sync for the whole run
+			long left = size - (this.offset - this.segmentBase);
+			while (left > 0) {
+				left -= this.segment.write(bufs, 0, to - from);
+			}
+			this.segment.force(false);
+
+			for (int i = from; i < to; i++) {
+				Append a = batch.get(i);
+				a.ack.complete(this.offset);
+				this.offset += a.record.length;
+				bufs[i - from] = null;
+			}
+			from = to;
+		}
+	}
+
+	/**
+	 * Cut off the bytes of one failed run, partially written or written but not synced,
+	 * so the offsets acked later and the next segment name match what is in the file
+	 */
+	private void discardUnacked() {
+		try {
+			this.segment.truncate(this.offset - this.segmentBase);
+		} catch (IOException e) {
+			// Unable to cut them off, so count them in instead
+			try {
+				this.offset = this.segmentBase + this.segment.size();
+			} catch (IOException e2) {
+			}
+		}
+	}
+
+	private void rollIfAged() throws IOException {
+		if (this.maxSegmentMillis > 0
+			&& this.offset > this.segmentBase
+			&& System.currentTimeMillis() - this.segmentOpenedAt >= this.maxSegmentMillis) {
+			this.roll();
+		}
+	}
+
+	private void roll() throws IOException {
+		FileChannel old = this.segment;
+		// Open the new one first, so failing to roll keeps writing to the old one
+		this.openSegment(this.segmentFile(this.offset), this.offset);
+		try {
+			old.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private void openSegment(File f, long base) throws IOException {
+		boolean created = !f.exists();
+		FileUtil.openFile(f.getPath());
+		this.segment = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (created) {
+			// Syncing the records does not sync the dir entry, without which one crash may lose the whole segment
+			AtomicFileWriter.syncDir(this.dir);
+		}
+		this.segmentBase = base;
+		this.segmentOpenedAt = System.currentTimeMillis();
+	}
+
+	private File segmentFile(long base) {
+		return new File(this.dir, String.format(Locale.ROOT, "%020d", base) + SEGMENT_SUFFIX);
+	}
+}
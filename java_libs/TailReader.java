@@ -0,0 +1,367 @@
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follow one growing file line by line, like "tail -F".
+ * <p>
+ * Starts at one byte offset or at the last N lines, then keeps reading as the file grows without reopening or rereading.
+ * When the file is truncated, goes back to its start, dropping the partial last line held back since its bytes are gone.
+ * When the file is rotated (the path now leads to another file), finishes the old one, giving out its partial last line
+ * as one line, and goes on with the new one from its start. Rotation is told by the file key where the file system has one,
+ * else(e.g. Windows) by the creation time or by the path turning smaller than the file still open.
+ * Waits for more data on one WatchService of the parent dir, with one adaptive backoff as the safety net
+ * for the file systems where the events are late or missing (e.g. NFS).
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class TailReader implements Closeable {
+
+	private static final long MIN_BACKOFF_MILLIS = 10;
+	private static final long MAX_BACKOFF_MILLIS = 1000;
+	private static final int READ_SIZE = 64 * 1024;
+
+	/**
+	 * Start following at one byte offset
+	 *
+	 * @param f
+	 * 		The file to follow. May not exist yet.
+	 * @param offset
+	 * 		The byte offset to start at. Beyond the end = the end.
+	 * @param charset
+	 * 		The charset to decode the lines
+	 * @throws IOException
+	 */
+	public TailReader(File f, long offset, Charset charset) throws IOException {
+
+		this.path = f.toPath().toAbsolutePath();
+		this.charset = charset;
+		this.buf.limit(0);
+
+		Path dir = this.path.getParent();
+		WatchService w = null;
+		try {
+			w = FileSystems.getDefault().newWatchService();
+			dir.register(w, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			// No events here, the backoff alone will do
+			if (w != null) {
+				w.close();
+			}
+			w = null;
+		}
+		this.ws = w;
+
+		this.open();
+		if (this.ch != null) {
+			this.pos = Math.min(Math.max(offset, 0), this.ch.size());
+		}
+	}
+
+	/**
+	 * Start following at the last N lines
+	 *
+	 * @param f
+	 * 		The file to follow. May not exist yet.
+	 * @param lastLines
+	 * 		The count of the last lines to start with
+	 * @param charset
+	 * 		The charset to decode the lines
+	 * @return
+	 * 		The TailReader
+	 * @throws IOException
+	 */
+	public static TailReader fromLastLines(File f, int lastLines, Charset charset) throws IOException {
+		TailReader t = new TailReader(f, 0, charset);
+		if (t.ch != null) {
+			t.pos = TailReader.lastLinesOffset(t.ch, lastLines);
+		}
+		return t;
+	}
+
+	private final Path path;
+	private final Charset charset;
+	private final WatchService ws;
+	private FileChannel ch = null;
+	private Object fileKey = null;
+	private FileTime created = null;
+	private long pos = 0;
+	private final ByteBuffer buf = ByteBuffer.allocate(READ_SIZE);
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+	// The partial last line of the rotated file, given out before the new file
+	private String lastLine = null;
+	private boolean closed = false;
+
+	/**
+	 * @return
+	 * 		The byte offset in the current file where the next line starts. Save it to resume later.
+	 */
+	public synchronized long getOffset() {
+		return this.pos - this.buf.remaining() - this.line.size();
+	}
+
+	/**
+	 * Read the next complete line, waiting for it if needed.
+	 * One partial last line is held back till its line end shows up, or till the file is rotated.
+	 *
+	 * @param timeoutMillis
+	 * 		The max time to wait. 0 = no waiting, &lt;0 = wait forever.
+	 * @return
+	 * 		The line not including "\n" or "\r\n". Null if timed out.
+	 * @throws IOException
+	 */
+	public synchronized String readLine(long timeoutMillis) throws IOException {
+
+		long deadline = timeoutMillis < 0 ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long backoff = MIN_BACKOFF_MILLIS;
+
+		while (!this.closed) {
+
+			String s = this.lastLine;
+			if (s != null) {
+				this.lastLine = null;
+				return s;
+			}
+
+			s = this.nextLine();
+			if (s != null) {
+				return s;
+			}
+
+			if (this.fetch()) {
+				backoff = MIN_BACKOFF_MILLIS;
+				continue;
+			}
+
+			long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (left <= 0) {
+				return null;
+			}
+			this.await(Math.min(left, backoff));
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+		}
+		throw new IOException("The reader is closed!");
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.closed = true;
+		try {
+			if (this.ch != null) {
+				this.ch.close();
+			}
+		} finally {
+			if (this.ws != null) {
+				this.ws.close();
+			}
+		}
+	}
+
+	/**
+	 * Cut one line out of the buffered bytes
+	 */
+	private String nextLine() {
+
+		while (this.buf.hasRemaining()) {
+			byte b = this.buf.get();
+			if (b == '\n') {
+				return this.cutLine();
+			}
+			this.line.write(b);
+		}
+		return null;
+	}
+
+	/**
+	 * Turn the bytes gathered so far into one line
+	 */
+	private String cutLine() {
+		byte[] bytes = this.line.toByteArray();
+		this.line.reset();
+		int len = bytes.length;
+		if (len > 0 && bytes[len - 1] == '\r') {
+			len--;
+		}
+		return new String(bytes, 0, len, this.charset);
+	}
+
+	/**
+	 * Read more bytes, handling truncation and rotation
+	 *
+	 * @return
+	 * 		True if got any
+	 */
+	private boolean fetch() throws IOException {
+
+		if (this.ch == null) {
+			this.open();
+			if (this.ch == null) {
+				return false;
+			}
+		}
+
+		if (this.read()) {
+			return true;
+		}
+
+		// Nothing new in the current file, see if it is the one still at the path
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(this.path, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			// Moved away and the new one not created yet
+			return false;
+		}
+
+		if (this.isRotated(attrs)) {
+			// Rotated. The old file is drained above, switch to the new one.
+			this.ch.close();
+			this.ch = null;
+			if (this.line.size() > 0) {
+				// The old file will not grow anymore, so its partial last line is complete
+				this.lastLine = this.cutLine();
+			}
+			this.open();
+			return this.lastLine != null || (this.ch != null && this.read());
+		}
+
+		if (this.ch.size() < this.pos) {
+			// Truncated, start over
+			this.pos = 0;
+			this.line.reset();
+			return this.read();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Tell if the path leads to another file than the one open
+	 */
+	private boolean isRotated(BasicFileAttributes attrs) throws IOException {
+		Object key = attrs.fileKey();
+		if (key != null && this.fileKey != null) {
+			return !key.equals(this.fileKey);
+		}
+		// No file keys(e.g. Windows): one other creation time, or the path now smaller than the file still open.
+		// The file systems without creation times report the last modified time instead, which changes on every write.
+		FileTime c = attrs.creationTime();
+		boolean realCreation = !c.equals(attrs.lastModifiedTime());
+		return (realCreation && !c.equals(this.created)) || attrs.size() < this.ch.size();
+	}
+
+	private boolean read() throws IOException {
+		this.buf.compact();
+		int n = this.ch.read(this.buf, this.pos);
+		this.buf.flip();
+		if (n > 0) {
+			this.pos += n;
+			return true;
+		}
+		return false;
+	}
+
+	private void open() throws IOException {
+		try {
+			this.ch = FileChannel.open(this.path, StandardOpenOption.READ);
+			BasicFileAttributes attrs = Files.readAttributes(this.path, BasicFileAttributes.class);
+			this.fileKey = attrs.fileKey();
+			this.created = attrs.creationTime();
+			this.pos = 0;
+		} catch (NoSuchFileException e) {
+			this.ch = null;
+		}
+	}
+
+	/**
+	 * Wait for one event of the dir or till the backoff is over
+	 */
+	private void await(long millis) throws IOException {
+		try {
+			if (this.ws == null) {
+				Thread.sleep(millis);
+				return;
+			}
+			WatchKey key = this.ws.poll(millis, TimeUnit.MILLISECONDS);
+			if (key != null) {
+				// Just a wake up, fetch will tell what changed
+				key.pollEvents();
+				key.reset();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while following " + this.path);
+		} catch (ClosedWatchServiceException e) {
+			// Closed meanwhile
+		}
+	}
+
+	/**
+	 * Find where the last N lines start by scanning backward from the end
+	 */
+	private static long lastLinesOffset(FileChannel ch, int lines) throws IOException {
+
+		long size = ch.size();
+		if (lines <= 0) {
+			return size;
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(READ_SIZE);
+		long end = size;
+		// One line end right at the end of the file closes the last line, not starts one more
+		int found = -1;
+
+		while (end > 0) {
+			long start = Math.max(0, end - READ_SIZE);
+			b.clear();
+			b.limit((int) (end - start));
+			while (b.hasRemaining() && ch.read(b, start + b.position()) > 0) {
+			}
+			for (int i = b.position() - 1; i >= 0; i--) {
+				if (b.get(i) == '\n') {
+					if (start + i == size - 1) {
+						continue;
+					}
+					if (++found >= lines - 1) {
+						return start + i + 1;
+					}
+				}
+			}
+			end = start;
+		}
+		return 0;
+	}
+
+	/**
+	 * Equal to TailReader(f, offset, StandardCharsets.UTF_8)
+	 *
+	 * @param f
+	 * 		Refer to TailReader(File f, long offset, Charset charset)
+	 * @param offset
+	 * 		Refer to TailReader(File f, long offset, Charset charset)
+	 * @throws IOException
+	 */
+	public TailReader(File f, long offset) throws IOException {
+		this(f, offset, StandardCharsets.UTF_8);
+	}
+}
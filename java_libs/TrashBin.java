@@ -0,0 +1,233 @@
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deferred deletion: the target is renamed into one trash dir at once and purged later by one background thread.
+ * The rename is atomic and O(1) however big the tree is, so the caller never waits for the deletion itself.
+ * The purge is paced at a max count of deletes per second to leave the disk to the foreground work.
+ * <p>
+ * The trash dir shall be on the same file system as the targets. What is left in it when closing,
+ * or after one crash, is purged by the next TrashBin opened on the same dir.
+ * <p>
+ * Thread-safe.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class TrashBin implements Closeable {
+
+	// Queued by close() to stop the purger
+	private static final Path POISON = Paths.get("");
+
+	/**
+	 * @param trashDir
+	 * 		The trash dir. If not existing, then create(including the parent dirs).
+	 * @param maxDeletesPerSecond
+	 * 		The max count of files and dirs the purger deletes per second. &lt;=0 = no limit.
+	 * @throws IOException
+	 */
+	public TrashBin(File trashDir, long maxDeletesPerSecond) throws IOException {
+
+		this.dir = trashDir.toPath().toAbsolutePath();
+		Files.createDirectories(this.dir);
+		this.nanosPerDelete = maxDeletesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxDeletesPerSecond : 0;
+
+		// The leftovers of the last run go first
+		DirectoryStream<Path> ds = Files.newDirectoryStream(this.dir);
+		try {
+			for (Path p : ds) {
+				this.queue.add(p);
+			}
+		} catch (DirectoryIteratorException e) {
+			throw e.getCause();
+		} finally {
+			ds.close();
+		}
+
+		this.purger = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				TrashBin.this.purgeLoop();
+			}
+		}, "TrashBin-" + this.dir.getFileName());
+		this.purger.setDaemon(true);
+		this.purger.start();
+	}
+
+	private final Path dir;
+	private final long nanosPerDelete;
+	private final LinkedBlockingQueue<Path> queue = new LinkedBlockingQueue<Path>();
+	private final AtomicLong seq = new AtomicLong();
+	private final AtomicLong purged = new AtomicLong();
+	private final Thread purger;
+	private volatile boolean closed = false;
+	private long nextDeleteNanos = System.nanoTime();
+
+	/**
+	 * Move the file or dir into the trash, to be deleted in the background
+	 *
+	 * @param f
+	 * 		The file or dir to delete
+	 * @throws IOException
+	 * 		If the target does not exist, or is not on the same file system as the trash dir
+	 * 		(java.nio.file.AtomicMoveNotSupportedException)
+	 */
+	public void discard(File f) throws IOException {
+
+		if (this.closed) {
+			throw new IOException("The trash bin is closed!");
+		}
+
+		Path src = f.toPath().toAbsolutePath();
+		if (this.dir.startsWith(src)) {
+			throw new IOException(f.getPath() + " -> Holding the trash dir, unable to discard!");
+		}
+
+		// Unique and sortable by the time discarded
+		Path dst = this.dir.resolve(System.currentTimeMillis() + "-" + this.seq.incrementAndGet() + "-" + src.getFileName());
+		Files.move(src, dst, StandardCopyOption.ATOMIC_MOVE);
+		this.queue.add(dst);
+	}
+
+	/**
+	 * @return
+	 * 		The count of the discarded targets not purged yet
+	 */
+	public int getPending() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return
+	 * 		The count of the files and dirs purged so far
+	 */
+	public long getPurged() {
+		return this.purged.get();
+	}
+
+	/**
+	 * Stop the purger after the delete in progress. What is left stays in the trash dir.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.queue.add(POISON);
+		try {
+			this.purger.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void purgeLoop() {
+		while (true) {
+			Path p;
+			try {
+				p = this.queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (p == POISON || this.closed) {
+				return;
+			}
+			this.purge(p);
+		}
+	}
+
+	/**
+	 * Delete one tree depth first, paced. Failures are skipped and retried by the next TrashBin.
+	 * Walked without recursion, so even the deepest trees never overflow the stack.
+	 */
+	private void purge(Path p) {
+
+		if (this.closed) {
+			return;
+		}
+
+		try {
+			// Not following the links, so only the links themselves are deleted
+			Files.walkFileTree(p, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					return TrashBin.this.delete(file);
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					// Unable to read, e.g. one dir unable to open, still try deleting it
+					return TrashBin.this.delete(file);
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					// Unable to list fully, still try deleting the dir
+					return TrashBin.this.delete(dir);
+				}
+			});
+		} catch (IOException e) {
+			// Not thrown by the visitor above
+		}
+	}
+
+	/**
+	 * Delete one file or empty dir in its turn
+	 *
+	 * @return
+	 * 		Whether to go on with the purge
+	 */
+	private FileVisitResult delete(Path p) {
+		if (this.closed || !this.pace()) {
+			return FileVisitResult.TERMINATE;
+		}
+		try {
+			if (Files.deleteIfExists(p)) {
+				this.purged.incrementAndGet();
+			}
+		} catch (IOException e) {
+		}
+		return FileVisitResult.CONTINUE;
+	}
+
+	/**
+	 * Wait for the turn of the next delete
+	 *
+	 * @return
+	 * 		False if interrupted, the interrupt kept for the purge loop to stop on
+	 */
+	private boolean pace() {
+		if (this.nanosPerDelete == 0) {
+			return !Thread.currentThread().isInterrupted();
+		}
+		long now = System.nanoTime();
+		if (this.nextDeleteNanos - now > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(this.nextDeleteNanos - now);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			now = this.nextDeleteNanos;
+		}
+		// Idle time is not saved up into one burst later
+		this.nextDeleteNanos = now + this.nanosPerDelete;
+		return true;
+	}
+}
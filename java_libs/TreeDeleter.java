@@ -0,0 +1,232 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delete one directory tree with fork/join.
+ * Each directory is listed once by streaming its entries and the sibling sub dirs are deleted in parallel.
+ * The trees without sub dirs are deleted on the caller's thread alone. The others run on one pool shared by
+ * the deletions of DEFAULT_PARALLELISM, while any other parallelism gets its own pool per deletion.
+ * Symbolic links are deleted as links, never followed.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class TreeDeleter {
+
+	/**
+	 * The default parallelism, the count of available processors
+	 */
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The summary of one deletion
+	 */
+	public static class Summary {
+
+		private Summary(long removed, List<Path> failures, long elapsedMillis) {
+			this.removed = removed;
+			this.failures = failures;
+			this.elapsedMillis = elapsedMillis;
+		}
+
+		private final long removed;
+		private final List<Path> failures;
+		private final long elapsedMillis;
+
+		/**
+		 * @return
+		 * 		The count of files and dirs removed
+		 */
+		public long getRemoved() {
+			return this.removed;
+		}
+
+		/**
+		 * @return
+		 * 		The paths failed to remove, unmodifiable
+		 */
+		public List<Path> getFailures() {
+			return this.failures;
+		}
+
+		/**
+		 * @return
+		 * 		The time spent in milliseconds
+		 */
+		public long getElapsedMillis() {
+			return this.elapsedMillis;
+		}
+
+		@Override
+		public String toString() {
+			return "removed=" + this.removed + ", failures=" + this.failures.size() + ", elapsed=" + this.elapsedMillis + "ms";
+		}
+	}
+
+	/**
+	 * Delete one file or one directory(including all stuff inside)
+	 *
+	 * @param f
+	 * 		The File object to be deleted
+	 * @param parallelism
+	 * 		The max count of threads deleting at the same time
+	 * @return
+	 * 		The summary of this deletion
+	 */
+	public static TreeDeleter.Summary delete(File f, int parallelism) {
+
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+		}
+
+		long t0 = System.nanoTime();
+		Path root = f.toPath();
+		TreeDeleter deleter = new TreeDeleter();
+
+		if (Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+			// The root is cleared on the caller's thread, so the pool is only touched for the trees having sub dirs
+			List<DirTask> subs = deleter.clear(root);
+			if (!subs.isEmpty()) {
+				if (parallelism == DEFAULT_PARALLELISM) {
+					TreeDeleter.getSharedPool().invoke(new AllTask(subs));
+				} else {
+					ForkJoinPool pool = new ForkJoinPool(parallelism);
+					try {
+						pool.invoke(new AllTask(subs));
+					} finally {
+						pool.shutdown();
+					}
+				}
+			}
+		}
+		deleter.deleteOne(root);
+
+		return new TreeDeleter.Summary(
+			deleter.removed.sum(),
+			Collections.unmodifiableList(new ArrayList<Path>(deleter.failures)),
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0)
+		);
+	}
+
+	/**
+	 * Equal to delete(f, DEFAULT_PARALLELISM)
+	 *
+	 * @param f
+	 * 		Refer to delete(File f, int parallelism)
+	 * @return
+	 * 		Refer to delete(File f, int parallelism)
+	 */
+	public static TreeDeleter.Summary delete(File f) {
+		return TreeDeleter.delete(f, DEFAULT_PARALLELISM);
+	}
+
+	private TreeDeleter() {
+	}
+
+	// Shared by the deletions of DEFAULT_PARALLELISM, created on the first one needing it
+	private static ForkJoinPool sharedPool = null;
+
+	private static synchronized ForkJoinPool getSharedPool() {
+		if (TreeDeleter.sharedPool == null) {
+			// Its worker threads are daemons and end themselves once idle
+			TreeDeleter.sharedPool = new ForkJoinPool(DEFAULT_PARALLELISM);
+		}
+		return TreeDeleter.sharedPool;
+	}
+
+	private final LongAdder removed = new LongAdder();
+	private final ConcurrentLinkedQueue<Path> failures = new ConcurrentLinkedQueue<Path>();
+
+	private void deleteOne(Path p) {
+		try {
+			if (Files.deleteIfExists(p)) {
+				this.removed.increment();
+			}
+		} catch (IOException e) {
+			this.failures.add(p);
+		}
+	}
+
+	/**
+	 * Delete the files right inside the dir
+	 *
+	 * @return
+	 * 		The tasks deleting its sub dirs, not started yet
+	 */
+	private List<DirTask> clear(Path dir) {
+
+		List<DirTask> subs = new ArrayList<DirTask>();
+
+		DirectoryStream<Path> ds = null;
+		try {
+			ds = Files.newDirectoryStream(dir);
+			for (Path p : ds) {
+				if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+					subs.add(new DirTask(p));
+				} else {
+					this.deleteOne(p);
+				}
+			}
+		} catch (IOException e) {
+			// Unable to list, still try deleting the dir after and let that record the failure
+		} catch (DirectoryIteratorException e) {
+			// Same as above
+		} finally {
+			if (ds != null) {
+				try {
+					ds.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		return subs;
+	}
+
+	private class DirTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		DirTask(Path dir) {
+			this.dir = dir;
+		}
+
+		private final Path dir;
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(TreeDeleter.this.clear(this.dir));
+			TreeDeleter.this.deleteOne(this.dir);
+		}
+	}
+
+	private static class AllTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		AllTask(List<DirTask> tasks) {
+			this.tasks = tasks;
+		}
+
+		private final List<DirTask> tasks;
+
+		@Override
+		protected void compute() {
+			ForkJoinTask.invokeAll(this.tasks);
+		}
+	}
+}
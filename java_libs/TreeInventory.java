@@ -0,0 +1,254 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The inventory of one directory tree: total bytes, file count, dir count and the sizes by file extension.
+ * Scanned with fork/join, one task per dir and the sibling sub dirs in parallel.
+ * Each entry's attributes are read once, in one call, and symbolic links are counted as files, never followed.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class TreeInventory {
+
+	/**
+	 * The key of the files without extension in the histogram
+	 */
+	public static final String NO_EXTENSION = "";
+
+	/**
+	 * The totals of the files with one extension
+	 */
+	public static class ExtensionStat {
+
+		private ExtensionStat() {
+		}
+
+		private long files = 0;
+		private long bytes = 0;
+
+		/**
+		 * @return
+		 * 		The count of files
+		 */
+		public long getFiles() {
+			return this.files;
+		}
+
+		/**
+		 * @return
+		 * 		The total bytes of the files
+		 */
+		public long getBytes() {
+			return this.bytes;
+		}
+
+		@Override
+		public String toString() {
+			return "files=" + this.files + ", bytes=" + this.bytes;
+		}
+	}
+
+	/**
+	 * Scan one directory tree
+	 *
+	 * @param root
+	 * 		The root dir. Not counted itself.
+	 * @param parallelism
+	 * 		The max count of threads scanning at the same time
+	 * @return
+	 * 		The inventory
+	 * @throws IOException
+	 */
+	public static TreeInventory scan(File root, int parallelism) throws IOException {
+
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Illegal parallelism: " + parallelism);
+		}
+		if (!root.isDirectory()) {
+			throw new IOException(root.getPath() + " -> No such dir to scan!");
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new DirTask(root.toPath()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Equal to scan(root, the count of available processors)
+	 *
+	 * @param root
+	 * 		Refer to scan(File root, int parallelism)
+	 * @return
+	 * 		Refer to scan(File root, int parallelism)
+	 * @throws IOException
+	 */
+	public static TreeInventory scan(File root) throws IOException {
+		return TreeInventory.scan(root, Runtime.getRuntime().availableProcessors());
+	}
+
+	private TreeInventory() {
+	}
+
+	private long bytes = 0;
+	private long files = 0;
+	private long dirs = 0;
+	private final List<Path> failures = new ArrayList<Path>();
+	private final Map<String, TreeInventory.ExtensionStat> byExtension = new HashMap<String, TreeInventory.ExtensionStat>();
+
+	/**
+	 * @return
+	 * 		The total bytes of the files
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return
+	 * 		The count of the files
+	 */
+	public long getFiles() {
+		return this.files;
+	}
+
+	/**
+	 * @return
+	 * 		The count of the dirs, not including the root
+	 */
+	public long getDirs() {
+		return this.dirs;
+	}
+
+	/**
+	 * @return
+	 * 		The paths failed to list or read
+	 */
+	public List<Path> getFailures() {
+		return Collections.unmodifiableList(this.failures);
+	}
+
+	/**
+	 * @return
+	 * 		The totals by the lower-cased file extension without the dot. NO_EXTENSION for the files without one.
+	 */
+	public Map<String, TreeInventory.ExtensionStat> getByExtension() {
+		return Collections.unmodifiableMap(this.byExtension);
+	}
+
+	@Override
+	public String toString() {
+		return "bytes=" + this.bytes + ", files=" + this.files + ", dirs=" + this.dirs + ", failures=" + this.failures.size();
+	}
+
+	private void addFile(Path p, long size) {
+
+		this.files++;
+		this.bytes += size;
+
+		String name = p.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		// A leading dot marks one hidden file, not one extension
+		String ext = dot > 0 ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : NO_EXTENSION;
+
+		TreeInventory.ExtensionStat s = this.byExtension.get(ext);
+		if (s == null) {
+			s = new TreeInventory.ExtensionStat();
+			this.byExtension.put(ext, s);
+		}
+		s.files++;
+		s.bytes += size;
+	}
+
+	private void merge(TreeInventory o) {
+
+		this.bytes += o.bytes;
+		this.files += o.files;
+		this.dirs += o.dirs;
+		this.failures.addAll(o.failures);
+
+		for (Map.Entry<String, TreeInventory.ExtensionStat> e : o.byExtension.entrySet()) {
+			TreeInventory.ExtensionStat s = this.byExtension.get(e.getKey());
+			if (s == null) {
+				this.byExtension.put(e.getKey(), e.getValue());
+			} else {
+				s.files += e.getValue().files;
+				s.bytes += e.getValue().bytes;
+			}
+		}
+	}
+
+	private static class DirTask extends RecursiveTask<TreeInventory> {
+
+		private static final long serialVersionUID = 1L;
+
+		DirTask(Path dir) {
+			this.dir = dir;
+		}
+
+		private final Path dir;
+
+		@Override
+		protected TreeInventory compute() {
+
+			TreeInventory inv = new TreeInventory();
+			List<DirTask> subs = new ArrayList<DirTask>();
+
+			DirectoryStream<Path> ds = null;
+			try {
+				ds = Files.newDirectoryStream(this.dir);
+				for (Path p : ds) {
+					BasicFileAttributes attrs;
+					try {
+						attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						inv.failures.add(p);
+						continue;
+					}
+					if (attrs.isDirectory()) {
+						inv.dirs++;
+						DirTask t = new DirTask(p);
+						t.fork();
+						subs.add(t);
+					} else {
+						inv.addFile(p, attrs.size());
+					}
+				}
+			} catch (IOException e) {
+				inv.failures.add(this.dir);
+			} catch (DirectoryIteratorException e) {
+				inv.failures.add(this.dir);
+			} finally {
+				if (ds != null) {
+					try {
+						ds.close();
+					} catch (IOException e) {
+					}
+				}
+			}
+
+			for (DirTask t : subs) {
+				inv.merge(t.join());
+			}
+			return inv;
+		}
+	}
+}
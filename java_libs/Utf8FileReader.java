@@ -0,0 +1,315 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file reader specialized for UTF-8 and US-ASCII.
+ * The bytes are decoded by hand straight out of one byte array, with one tight loop copying the pure-ASCII runs,
+ * instead of going through the generic CharsetDecoder.
+ * Each malformed byte is read as one U+FFFD, which may give more replacement chars than the JDK decoder on broken input.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class Utf8FileReader extends Reader {
+
+	private static final char REPLACEMENT = '\uFFFD';
+
+	/**
+	 * Tell if this reader can decode the charset
+	 *
+	 * @param charset
+	 * 		The charset
+	 * @return
+	 * 		True if UTF-8 or US-ASCII
+	 */
+	public static boolean supports(Charset charset) {
+		return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+	}
+
+	/**
+	 * @param f
+	 * 		The file to read. Shall not be directory.
+	 * @param charset
+	 * 		StandardCharsets.UTF_8 or StandardCharsets.US_ASCII
+	 * @param bufferSize
+	 * 		The length of the byte and char buffers, at least BufferPool.MIN_BUFFER_SIZE
+	 * @param pool
+	 * 		The pool to take the byte buffer from
+	 * @throws IOException
+	 */
+	public Utf8FileReader(File f, Charset charset, int bufferSize, BufferPool pool) throws IOException {
+
+		if (!Utf8FileReader.supports(charset)) {
+			throw new IllegalArgumentException("Unsupported charset: " + charset);
+		}
+
+		bufferSize = Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE);
+		this.ascii = StandardCharsets.US_ASCII.equals(charset);
+		this.ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+		this.pool = pool;
+		this.in = pool.acquireArray(bufferSize);
+		this.out = new char[bufferSize];
+	}
+
+	private final boolean ascii;
+	private final FileChannel ch;
+	private final BufferPool pool;
+	private byte[] in;
+	private int inPos = 0;
+	private int inLim = 0;
+	private final char[] out;
+	private int outPos = 0;
+	private int outLim = 0;
+	private boolean eof = false;
+	// Set when the last char served was '\r' by readLine, so the following '\n' is skipped
+	private boolean skipLF = false;
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			if (len == 0) {
+				return 0;
+			}
+			if (!this.prepare()) {
+				return -1;
+			}
+			int n = Math.min(len, this.outLim - this.outPos);
+			System.arraycopy(this.out, this.outPos, cbuf, off, n);
+			this.outPos += n;
+			return n;
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			return this.prepare() ? this.out[this.outPos++] : -1;
+		}
+	}
+
+	/**
+	 * Read one line, like java.io.BufferedReader.readLine
+	 *
+	 * @return
+	 * 		The line not including any line-termination chars. Null if the end of the file is reached.
+	 * @throws IOException
+	 */
+	public String readLine() throws IOException {
+		synchronized (this.lock) {
+
+			this.ensureOpen();
+			StringBuilder sb = null;
+
+			while (this.prepare()) {
+
+				int start = this.outPos;
+				for (int i = start; i < this.outLim; i++) {
+					char c = this.out[i];
+					if (c == '\n' || c == '\r') {
+						this.outPos = i + 1;
+						this.skipLF = (c == '\r');
+						if (sb == null) {
+							return new String(this.out, start, i - start);
+						}
+						return sb.append(this.out, start, i - start).toString();
+					}
+				}
+
+				if (sb == null) {
+					sb = new StringBuilder(this.outLim - start + 80);
+				}
+				sb.append(this.out, start, this.outLim - start);
+				this.outPos = this.outLim;
+			}
+
+			return sb == null ? null : sb.toString();
+		}
+	}
+
+	@Override
+	public boolean ready() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			return this.outPos < this.outLim;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.lock) {
+
+			if (this.in == null) {
+				return;
+			}
+
+			try {
+				this.ch.close();
+			} finally {
+				this.pool.releaseArray(this.in);
+				this.in = null;
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.in == null) {
+			throw new IOException("The reader is closed!");
+		}
+	}
+
+	/**
+	 * Make sure there are chars to serve and the '\n' after one '\r' ending the last line is skipped
+	 *
+	 * @return
+	 * 		False if no more chars
+	 */
+	private boolean prepare() throws IOException {
+
+		if (this.outPos == this.outLim && !this.fill()) {
+			return false;
+		}
+
+		if (this.skipLF) {
+			this.skipLF = false;
+			if (this.out[this.outPos] == '\n') {
+				this.outPos++;
+				if (this.outPos == this.outLim && !this.fill()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode more chars into the char buffer which is drained
+	 *
+	 * @return
+	 * 		False if no more chars
+	 */
+	private boolean fill() throws IOException {
+
+		this.outPos = 0;
+		this.outLim = 0;
+
+		while (this.outLim == 0) {
+
+			if (this.inLim - this.inPos < 4 && !this.eof) {
+				// Keep the bytes of one split char, move them ahead and read more behind
+				int left = this.inLim - this.inPos;
+				System.arraycopy(this.in, this.inPos, this.in, 0, left);
+				this.inPos = 0;
+				this.inLim = left;
+				int n = this.ch.read(ByteBuffer.wrap(this.in, left, this.in.length - left));
+				if (n < 0) {
+					this.eof = true;
+				} else {
+					this.inLim += n;
+				}
+			}
+
+			if (this.inPos == this.inLim) {
+				if (this.eof) {
+					return false;
+				}
+				continue;
+			}
+
+			this.decode();
+		}
+		return true;
+	}
+
+	private void decode() {
+
+		byte[] src = this.in;
+		char[] dst = this.out;
+		int sp = this.inPos;
+		int sl = this.inLim;
+		int dp = this.outLim;
+		// Room for one surrogate pair
+		int dl = dst.length - 1;
+
+		while (sp < sl && dp < dl) {
+
+			// The ASCII run
+			int lim = Math.min(sl, sp + dl - dp);
+			byte b;
+			while (sp < lim && (b = src[sp]) >= 0) {
+				dst[dp++] = (char) b;
+				sp++;
+			}
+			if (sp == lim) {
+				continue;
+			}
+
+			int lead = src[sp] & 0xFF;
+			if (this.ascii) {
+				dst[dp++] = REPLACEMENT;
+				sp++;
+				continue;
+			}
+
+			int need = lead < 0xC2 ? 0 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : lead < 0xF5 ? 4 : 0;
+			if (need == 0) {
+				// One stray continuation byte, one overlong lead or out of the Unicode range
+				dst[dp++] = REPLACEMENT;
+				sp++;
+				continue;
+			}
+
+			if (sl - sp < need) {
+				if (!this.eof) {
+					// The rest of this char comes with the next read
+					break;
+				}
+				dst[dp++] = REPLACEMENT;
+				sp++;
+				continue;
+			}
+
+			int cp = lead & (0x7F >> need);
+			boolean ok = true;
+			for (int i = 1; i < need; i++) {
+				int c = src[sp + i];
+				if ((c & 0xC0) != 0x80) {
+					ok = false;
+					break;
+				}
+				cp = (cp << 6) | (c & 0x3F);
+			}
+
+			if (ok) {
+				if (need == 3) {
+					ok = cp >= 0x800 && !Character.isSurrogate((char) cp);
+				} else if (need == 4) {
+					ok = cp >= 0x10000 && cp <= 0x10FFFF;
+				}
+			}
+
+			if (!ok) {
+				dst[dp++] = REPLACEMENT;
+				sp++;
+			} else if (need == 4) {
+				dst[dp++] = Character.highSurrogate(cp);
+				dst[dp++] = Character.lowSurrogate(cp);
+				sp += need;
+			} else {
+				dst[dp++] = (char) cp;
+				sp += need;
+			}
+		}
+
+		this.inPos = sp;
+		this.outLim = dp;
+	}
+}
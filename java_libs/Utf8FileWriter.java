@@ -0,0 +1,242 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file writer specialized for UTF-8 and US-ASCII.
+ * The chars are encoded by hand straight into one byte array, with one tight loop copying the pure-ASCII runs,
+ * instead of going through the generic CharsetEncoder.
+ * Unmappable chars and lone surrogates are written as '?', like the JDK encoders do.
+ *
+ * @author Fischer_Liu
+ *
+ */
+public class Utf8FileWriter extends Writer {
+
+	/**
+	 * Tell if this writer can encode the charset
+	 *
+	 * @param charset
+	 * 		The charset
+	 * @return
+	 * 		True if UTF-8 or US-ASCII
+	 */
+	public static boolean supports(Charset charset) {
+		return StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
+	}
+
+	/**
+	 * @param f
+	 * 		The file to write. If existing, then overwrite.
+	 * @param charset
+	 * 		StandardCharsets.UTF_8 or StandardCharsets.US_ASCII
+	 * @param bufferSize
+	 * 		The length of the byte buffer, at least BufferPool.MIN_BUFFER_SIZE, rounded up to one power of 2
+	 * @param pool
+	 * 		The pool to take the byte buffer from
+	 * @throws IOException
+	 */
+	public Utf8FileWriter(File f, Charset charset, int bufferSize, BufferPool pool) throws IOException {
+
+		if (!Utf8FileWriter.supports(charset)) {
+			throw new IllegalArgumentException("Unsupported charset: " + charset);
+		}
+
+		this.ascii = StandardCharsets.US_ASCII.equals(charset);
+		this.ch = FileChannel.open(
+			f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING
+		);
+		this.pool = pool;
+		this.buf = pool.acquireArray(Math.max(bufferSize, BufferPool.MIN_BUFFER_SIZE));
+	}
+
+	private final boolean ascii;
+	private final FileChannel ch;
+	private final BufferPool pool;
+	private byte[] buf;
+	private int pos = 0;
+	// The high surrogate at the end of the last write, waiting for its low surrogate
+	private char pendingHigh = 0;
+	// For copying the chars out of Strings
+	private char[] scratch;
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			this.encode(cbuf, off, off + len);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			if (this.scratch == null) {
+				this.scratch = new char[Math.min(this.buf.length, 1024)];
+			}
+			while (len > 0) {
+				int n = Math.min(len, this.scratch.length);
+				str.getChars(off, off + n, this.scratch, 0);
+				this.encode(this.scratch, 0, n);
+				off += n;
+				len -= n;
+			}
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			if (c < 0x80 && this.pendingHigh == 0 && this.pos < this.buf.length) {
+				this.buf[this.pos++] = (byte) c;
+			} else {
+				this.encode(new char[] { (char) c }, 0, 1);
+			}
+		}
+	}
+
+	/**
+	 * Write one line separator
+	 *
+	 * @throws IOException
+	 */
+	public void newLine() throws IOException {
+		this.write(System.lineSeparator());
+	}
+
+	/**
+	 * Push the buffered bytes down to the file. Not syncing to the disk.
+	 */
+	@Override
+	public void flush() throws IOException {
+		synchronized (this.lock) {
+			this.ensureOpen();
+			this.writeBytes();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this.lock) {
+
+			if (this.buf == null) {
+				return;
+			}
+
+			try {
+				if (this.pendingHigh != 0) {
+					this.pendingHigh = 0;
+					if (this.pos == this.buf.length) {
+						this.writeBytes();
+					}
+					this.buf[this.pos++] = '?';
+				}
+				this.writeBytes();
+			} finally {
+				this.ch.close();
+				this.pool.releaseArray(this.buf);
+				this.buf = null;
+			}
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.buf == null) {
+			throw new IOException("The writer is closed!");
+		}
+	}
+
+	private void encode(char[] src, int off, int end) throws IOException {
+
+		byte[] b = this.buf;
+		int cap = b.length;
+
+		while (off < end) {
+
+			// Room for the longest one, 4 bytes of one surrogate pair
+			if (cap - this.pos < 4) {
+				this.writeBytes();
+			}
+
+			char c;
+			if (this.pendingHigh != 0) {
+				c = this.pendingHigh;
+				this.pendingHigh = 0;
+			} else {
+				// The ASCII run
+				int p = this.pos;
+				int lim = Math.min(end, off + cap - p);
+				while (off < lim && (c = src[off]) < 0x80) {
+					b[p++] = (byte) c;
+					off++;
+				}
+				this.pos = p;
+				if (off == lim) {
+					continue;
+				}
+				if (cap - this.pos < 4) {
+					this.writeBytes();
+				}
+				c = src[off++];
+			}
+
+			if (Character.isHighSurrogate(c)) {
+				if (off == end) {
+					// The low surrogate may come with the next write
+					this.pendingHigh = c;
+					return;
+				}
+				char low = src[off];
+				if (Character.isLowSurrogate(low)) {
+					off++;
+					this.putCodePoint(Character.toCodePoint(c, low));
+				} else {
+					b[this.pos++] = '?';
+				}
+			} else if (Character.isLowSurrogate(c)) {
+				b[this.pos++] = '?';
+			} else {
+				this.putCodePoint(c);
+			}
+		}
+	}
+
+	private void putCodePoint(int cp) {
+
+		byte[] b = this.buf;
+
+		if (this.ascii) {
+			b[this.pos++] = cp < 0x80 ? (byte) cp : (byte) '?';
+		} else if (cp < 0x80) {
+			b[this.pos++] = (byte) cp;
+		} else if (cp < 0x800) {
+			b[this.pos++] = (byte) (0xC0 | (cp >> 6));
+			b[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+		} else if (cp < 0x10000) {
+			b[this.pos++] = (byte) (0xE0 | (cp >> 12));
+			b[this.pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			b[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+		} else {
+			b[this.pos++] = (byte) (0xF0 | (cp >> 18));
+			b[this.pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			b[this.pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			b[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+		}
+	}
+
+	private void writeBytes() throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(this.buf, 0, this.pos);
+		while (bb.hasRemaining()) {
+			this.ch.write(bb);
+		}
+		this.pos = 0;
+	}
+}